@@ -0,0 +1,71 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures {@code BALANCE} throughput with and without the balance cache:
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar org.example.BalanceBenchmark accountNumber [threads] [seconds] [depositEvery]
+ * </pre>
+ * Each thread reads the account's balance in a loop. The first run reads every balance from the
+ * database, the way {@code BALANCE} did before the cache. The second goes through
+ * {@link Database#getBalance} and the cache. In both runs, one operation in {@code depositEvery}
+ * is a one-cent deposit, so the cache is also exercised under writes; 0 turns the deposits off.
+ * The report gives both rates and the cache's hit, miss and eviction counters. The deposits add
+ * up, so use a test account.
+ */
+public class BalanceBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: BalanceBenchmark accountNumber [threads] [seconds] [depositEvery]");
+            return;
+        }
+        Account account = Database.findAccount(args[0]);
+        if (account == null) {
+            System.out.println("No such account: " + args[0]);
+            return;
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int depositEvery = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        if (Database.jdbc().balanceCache() == null) {
+            System.out.println("The balance cache is off (bank.balanceCache.size=0)");
+            return;
+        }
+
+        double uncached = run(threads, seconds, depositEvery, () -> Database.jdbc().loadBalance(account), account);
+        double cached = run(threads, seconds, depositEvery, () -> Database.getBalance(account), account);
+        System.out.printf("uncached: %.0f BALANCE/s%ncached:   %.0f BALANCE/s (%.1fx)%n%s%n",
+                uncached, cached, cached / uncached, Database.jdbc().balanceCache());
+        Database.pool().shutdown();
+    }
+
+    interface BalanceRead {
+        long read();
+    }
+
+    private static double run(int threads, int seconds, int depositEvery, BalanceRead read, Account account)
+            throws InterruptedException {
+        LongAdder reads = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(Thread.ofPlatform().start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    if (depositEvery > 0 && random.nextInt(depositEvery) == 0) {
+                        Database.deposit(account, 1);
+                    } else if (read.read() >= 0) {
+                        reads.increment();
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) worker.join();
+        return reads.sum() / (double) seconds;
+    }
+}
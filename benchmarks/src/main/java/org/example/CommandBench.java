@@ -0,0 +1,56 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * One legacy command through {@link Session#handle}, which is what {@code ClientHandler.run} and
+ * the NIO server call for every frame: split, dispatch, parse the arguments, run and reply. The
+ * session is logged in to an account on the embedded store. {@code WITHDRAW:1e3} and {@code NOPE}
+ * are rejected while parsing, so they measure the parser alone.
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CommandBench {
+    @Param({"BALANCE", "DEPOSIT:12.50", "HISTORY:20", "WITHDRAW:1e3", "NOPE"})
+    public String command;
+
+    private Path dir;
+    private Session session;
+    private Session.Replies replies;
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws IOException {
+        dir = EmbeddedStore.start();
+        EmbeddedStore.register("bench-commands");
+        session = new Session();
+        session.login("bench-commands", EmbeddedStore.PASSWORD);
+        for (int i = 0; i < 100; i++) session.deposit(1_000 + i);
+        replies = blackhole::consume;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        EmbeddedStore.stop(dir);
+    }
+
+    @Benchmark
+    public boolean handle() throws IOException {
+        return session.handle(command, replies);
+    }
+}
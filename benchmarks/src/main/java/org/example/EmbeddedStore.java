@@ -0,0 +1,48 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Points {@link Database} at a throwaway memory store, so the benchmarks need no MySQL. It sets the
+ * store properties, which {@link ServerConfig} reads once, so {@link #start} has to run before
+ * anything touches {@link Database} or {@link Session}. JMH forks a fresh JVM per benchmark, so
+ * each one gets its own store.
+ */
+final class EmbeddedStore {
+    static final String PASSWORD = "bench-password";
+
+    private EmbeddedStore() {
+    }
+
+    static Path start() throws IOException {
+        Path dir = Files.createTempDirectory("bank-bench");
+        System.setProperty("bank.store", "memory");
+        System.setProperty("bank.store.dir", dir.toString());
+        System.setProperty("bank.store.fsync", "never");
+        System.setProperty("bank.store.snapshotIntervalMs", "0");
+        return dir;
+    }
+
+    /** Registers {@code username} and returns its account. */
+    static Account register(String username) {
+        try {
+            if (!Database.registerUser(username, PASSWORD)) throw new IllegalStateException("cannot register " + username);
+        } catch (AuthPool.BusyException e) {
+            throw new IllegalStateException("cannot register " + username, e);
+        }
+        Map<String, String> login = Database.loginUser(username, PASSWORD);
+        return new Account(Integer.parseInt(login.get("accountId")), login.get("accountNumber"));
+    }
+
+    static void stop(Path dir) throws IOException {
+        Database.store().shutdown();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The legacy protocol's frames, written and read with {@code writeUTF}/{@code readUTF} as the
+ * thread-per-connection server does and with {@link Utf8Frames} as the NIO server does. The
+ * payloads are a typical command, a full 100-row {@code HISTORY:} reply, and a command with
+ * non-ASCII characters.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FramingBench {
+    @Param({"command", "history", "unicode"})
+    public String payload;
+
+    private String text;
+    private byte[] frame;
+    private char[] scratch;
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream output;
+    private ByteArrayInputStream inputBytes;
+    private DataInputStream input;
+
+    @Setup
+    public void setUp() throws IOException {
+        text = switch (payload) {
+            case "command" -> "DEPOSIT:1250.75";
+            case "history" -> historyReply();
+            case "unicode" -> "REGISTER:Zoë_Øster_東京:pässwörd";
+            default -> throw new IllegalArgumentException(payload);
+        };
+        frame = Utf8Frames.encode(text);
+        scratch = new char[Utf8Frames.MAX_PAYLOAD];
+        bytes = new ByteArrayOutputStream(frame.length);
+        output = new DataOutputStream(bytes);
+        inputBytes = new ByteArrayInputStream(frame);
+        input = new DataInputStream(inputBytes);
+    }
+
+    private static String historyReply() {
+        StringBuilder reply = new StringBuilder("HISTORY:");
+        for (int i = 0; i < 100; i++) {
+            if (i > 0) reply.append('\n');
+            reply.append("2026-03-14 09:26:53.").append(100 + i).append(i % 3 == 0 ? ",WITHDRAW," : ",DEPOSIT,");
+            Money.appendTo(reply, 10_000 + i * 137L);
+        }
+        return reply.toString();
+    }
+
+    @Benchmark
+    public int writeUTF() throws IOException {
+        bytes.reset();
+        output.writeUTF(text);
+        return bytes.size();
+    }
+
+    @Benchmark
+    public String readUTF() throws IOException {
+        inputBytes.reset();
+        return input.readUTF();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return Utf8Frames.encode(text);
+    }
+
+    @Benchmark
+    public String decode() throws IOException {
+        return Utf8Frames.decode(ByteBuffer.wrap(frame, 2, frame.length - 2), frame.length - 2, scratch);
+    }
+}
@@ -0,0 +1,230 @@
+package org.example;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * Generates transaction history and measures how long history reads take as the table grows.
+ * Run it against a scratch database, since it adds a user with many accounts and rows:
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar org.example.HistoryBenchmark generate totalRows [accounts]
+ *   java -cp benchmarks/target/benchmarks.jar org.example.HistoryBenchmark run [queries] [pageSize]
+ *   java -cp benchmarks/target/benchmarks.jar org.example.HistoryBenchmark sweep [accounts] [queries]
+ * </pre>
+ * {@code generate} tops the transactions table up to {@code totalRows}. The rows are spread
+ * evenly over the benchmark accounts, with random timestamps across the past year. {@code run}
+ * times three reads for random accounts: the first {@code HISTORY} page, a page that starts at a
+ * random point in the year, and the full unpaged history behind {@code TRANSACTIONS}. It also
+ * prints the plan MySQL picks for them. {@code sweep} runs both at 1M, 10M and 50M rows.
+ * <p>
+ * The schema is migrated first, so the history queries run against the covering index.
+ */
+public class HistoryBenchmark {
+    private static final String ACCOUNT_PREFIX = "HB";
+    private static final int ROWS_PER_INSERT = 1_000;
+    private static final int ROWS_PER_COMMIT = 50_000;
+    private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+    private static final long[] SWEEP_ROWS = {1_000_000, 10_000_000, 50_000_000};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: HistoryBenchmark generate totalRows [accounts] | run [queries] [pageSize]"
+                    + " | sweep [accounts] [queries]");
+            return;
+        }
+        if (!Migrations.apply(Database.pool())) return;
+
+        switch (args[0]) {
+            case "generate":
+                generate(Long.parseLong(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 1_000);
+                break;
+            case "run":
+                run(args.length > 1 ? Integer.parseInt(args[1]) : 200, args.length > 2 ? Integer.parseInt(args[2]) : 100);
+                break;
+            case "sweep":
+                int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+                int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+                for (long rows : SWEEP_ROWS) {
+                    generate(rows, accounts);
+                    run(queries, 100);
+                }
+                break;
+            default:
+                System.out.println("Unknown mode: " + args[0]);
+        }
+        Database.pool().shutdown();
+    }
+
+    private static void generate(long totalRows, int accountCount) throws SQLException {
+        List<Account> accounts = benchmarkAccounts(accountCount);
+        try (Connection conn = Database.pool().getConnection()) {
+            long existing = countRows(conn);
+            if (existing >= totalRows) {
+                System.out.printf("transactions already holds %,d rows%n", existing);
+                return;
+            }
+
+            conn.setAutoCommit(false);
+            String sql = "INSERT INTO transactions (account_id, type, amount, timestamp) VALUES "
+                    + String.join(", ", Collections.nCopies(ROWS_PER_INSERT, "(?, ?, ? / 100, ?)"));
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long yearStart = System.currentTimeMillis() - YEAR_MILLIS;
+            long start = System.nanoTime();
+            long inserted = 0;
+            long toInsert = totalRows - existing;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                while (inserted < toInsert) {
+                    for (int i = 0; i < ROWS_PER_INSERT; i++) {
+                        int p = i * 4;
+                        stmt.setInt(p + 1, accounts.get((int) ((existing + inserted + i) % accounts.size())).id());
+                        stmt.setString(p + 2, random.nextBoolean() ? "DEPOSIT" : "WITHDRAW");
+                        stmt.setLong(p + 3, random.nextInt(1, 100_000));
+                        stmt.setTimestamp(p + 4, new Timestamp(yearStart + random.nextLong(YEAR_MILLIS)));
+                    }
+                    stmt.executeUpdate();
+                    inserted += ROWS_PER_INSERT;
+                    if (inserted % ROWS_PER_COMMIT == 0) conn.commit();
+                    if (inserted % 1_000_000 == 0) {
+                        System.out.printf("  %,d / %,d rows inserted%n", inserted, toInsert);
+                    }
+                }
+                conn.commit();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Inserted %,d rows in %.1f s (%.0f rows/s)%n", inserted, seconds, inserted / seconds);
+        }
+    }
+
+    private static void run(int queries, int pageSize) throws SQLException, IOException {
+        List<Account> accounts = benchmarkAccounts(0);
+        if (accounts.isEmpty()) {
+            System.out.println("No benchmark accounts, run generate first");
+            return;
+        }
+        long tableRows;
+        try (Connection conn = Database.pool().getConnection()) {
+            tableRows = countRows(conn);
+            explain(conn, "full history", "SELECT type, CAST(amount * 100 AS SIGNED), timestamp FROM transactions "
+                    + "WHERE account_id = " + accounts.get(0).id() + " ORDER BY timestamp, transaction_id");
+            explain(conn, "cursor page", "SELECT transaction_id, type, CAST(amount * 100 AS SIGNED), timestamp FROM transactions "
+                    + "WHERE account_id = " + accounts.get(0).id() + " AND (timestamp > NOW() - INTERVAL 180 DAY "
+                    + "OR (timestamp = NOW() - INTERVAL 180 DAY AND transaction_id > 0)) "
+                    + "ORDER BY timestamp, transaction_id LIMIT " + (pageSize + 1));
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long yearStart = System.currentTimeMillis() - YEAR_MILLIS;
+        long[] firstPage = new long[queries];
+        long[] cursorPage = new long[queries];
+        long[] fullHistory = new long[queries];
+        long fullRows = 0;
+        long[] rows = new long[1];
+        BankStore.TransactionVisitor count = (id, type, amount, timestamp) -> rows[0]++;
+        for (int i = 0; i < queries; i++) {
+            Account account = accounts.get(random.nextInt(accounts.size()));
+
+            long start = System.nanoTime();
+            Database.streamTransactions(account, HistoryQuery.firstPage(pageSize, 0, 0), count);
+            firstPage[i] = System.nanoTime() - start;
+
+            HistoryQuery seek = HistoryQuery.firstPage(pageSize, 0, 0).after(yearStart + random.nextLong(YEAR_MILLIS), 0);
+            start = System.nanoTime();
+            Database.streamTransactions(account, seek, count);
+            cursorPage[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            fullRows += Database.getTransactionHistory(account).size();
+            fullHistory[i] = System.nanoTime() - start;
+        }
+
+        System.out.printf("%n%,d rows in transactions, %d accounts, %d queries each%n", tableRows, accounts.size(), queries);
+        report("first page (" + pageSize + " rows)", firstPage);
+        report("cursor page (" + pageSize + " rows)", cursorPage);
+        report("full history (avg " + fullRows / queries + " rows)", fullHistory);
+    }
+
+    /** Creates the benchmark user and accounts as needed and returns all benchmark accounts. */
+    private static List<Account> benchmarkAccounts(int wanted) throws SQLException {
+        try (Connection conn = Database.pool().getConnection()) {
+            int userId;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT user_id FROM users WHERE username = 'histbench'")) {
+                userId = rs.next() ? rs.getInt(1) : -1;
+            }
+            if (userId < 0 && wanted > 0) {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO users (username, password) VALUES ('histbench', ?)", Statement.RETURN_GENERATED_KEYS)) {
+                    stmt.setString(1, BCrypt.hashpw("histbench", BCrypt.gensalt(4)));
+                    stmt.executeUpdate();
+                    try (ResultSet keys = stmt.getGeneratedKeys()) {
+                        keys.next();
+                        userId = keys.getInt(1);
+                    }
+                }
+            }
+
+            List<Account> accounts = new ArrayList<>();
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT account_id, account_number FROM accounts WHERE user_id = ? ORDER BY account_id")) {
+                stmt.setInt(1, userId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) accounts.add(new Account(rs.getInt(1), rs.getString(2)));
+                }
+            }
+            if (accounts.size() < wanted) {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO accounts (user_id, account_number) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+                    for (int i = accounts.size(); i < wanted; i++) {
+                        String number = String.format("%s%08d", ACCOUNT_PREFIX, i);
+                        stmt.setInt(1, userId);
+                        stmt.setString(2, number);
+                        stmt.executeUpdate();
+                        try (ResultSet keys = stmt.getGeneratedKeys()) {
+                            keys.next();
+                            accounts.add(new Account(keys.getInt(1), number));
+                        }
+                    }
+                }
+            }
+            return accounts;
+        }
+    }
+
+    private static long countRows(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM transactions")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static void explain(Connection conn, String label, String query) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("EXPLAIN " + query)) {
+            while (rs.next()) {
+                System.out.printf("plan for %s: type=%s key=%s rows=%s extra=%s%n", label,
+                        rs.getString("type"), rs.getString("key"), rs.getString("rows"), rs.getString("Extra"));
+            }
+        }
+    }
+
+    private static void report(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("  %-34s p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms%n", label,
+                sorted[sorted.length / 2] / 1e6,
+                sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 1e6,
+                sorted[sorted.length - 1] / 1e6);
+    }
+}
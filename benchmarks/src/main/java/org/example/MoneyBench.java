@@ -0,0 +1,67 @@
+package org.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Money}'s parse and format routines next to the {@code double} code they replaced: the
+ * GUI's regex check plus {@code Double.parseDouble}, and {@code String.format("%.2f")}. Each call
+ * takes the next of 4096 random amounts.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MoneyBench {
+    private static final int SAMPLES = 4096;
+
+    private final String[] texts = new String[SAMPLES];
+    private final long[] amounts = new long[SAMPLES];
+    private final StringBuilder builder = new StringBuilder(32);
+    private int next;
+
+    @Setup
+    public void setUp() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < SAMPLES; i++) {
+            amounts[i] = random.nextLong(1, 10_000_000);
+            texts[i] = Money.format(amounts[i]);
+        }
+    }
+
+    private int next() {
+        return next++ & (SAMPLES - 1);
+    }
+
+    @Benchmark
+    public long parseDoubleRegex() {
+        String text = texts[next()];
+        if (!text.matches("\\d+(\\.\\d{1,2})?")) return -1;
+        return Math.round(Double.parseDouble(text) * 100);
+    }
+
+    @Benchmark
+    public long parseMoney() {
+        return Money.parse(texts[next()]);
+    }
+
+    @Benchmark
+    public String formatStringFormat() {
+        return String.format("%.2f", amounts[next()] / 100.0);
+    }
+
+    @Benchmark
+    public StringBuilder formatMoney() {
+        builder.setLength(0);
+        return Money.appendTo(builder, amounts[next()]);
+    }
+}
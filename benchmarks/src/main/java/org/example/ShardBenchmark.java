@@ -0,0 +1,86 @@
+package org.example;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Measures account-sharded command execution under contention. It runs against a throwaway
+ * memory store, so no database is needed:
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar org.example.ShardBenchmark [threads] [seconds] [shards] [accounts] [hotAccounts] [hotShare]
+ * </pre>
+ * Caller threads send deposits through a {@link KeyedExecutor} and wait for each one, as sessions
+ * do. There are two rounds. In {@code uniform}, each deposit picks an account at random. In
+ * {@code hot}, {@code hotShare} of the deposits (0.9 by default) go to {@code hotAccounts} accounts
+ * (10 by default). Each round prints throughput, p50/p99/max latency and the busiest shard's share
+ * of the work. The hot round shows how far a few busy accounts pull the load onto their shards.
+ */
+public class ShardBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int shards = args.length > 2 ? Integer.parseInt(args[2]) : ServerConfig.ACCOUNT_SHARDS;
+        int accountCount = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+        int hotAccounts = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        double hotShare = args.length > 5 ? Double.parseDouble(args[5]) : 0.9;
+
+        Path dir = Files.createTempDirectory("shard-bench");
+        MemoryBankStore store = new MemoryBankStore(dir, 64L * 1024 * 1024, "never", 0, 0, new AuthPool(1, 16));
+        Account[] accounts = new Account[accountCount];
+        for (int i = 0; i < accountCount; i++) accounts[i] = store.createAccount("shardbench" + i, "-");
+
+        run("uniform", store, accounts, threads, seconds, shards, 0, 0);
+        run("hot", store, accounts, threads, seconds, shards, hotAccounts, hotShare);
+        store.shutdown();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    private static void run(String name, MemoryBankStore store, Account[] accounts, int threads, int seconds,
+                            int shardCount, int hotAccounts, double hotShare) throws InterruptedException {
+        KeyedExecutor shards = new KeyedExecutor(shardCount, "bench-" + name);
+        LongAdder operations = new LongAdder();
+        long[][] latencies = new long[threads][];
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+
+        Thread[] callers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            callers[t] = Thread.ofPlatform().start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long[] samples = new long[1 << 16];
+                int count = 0;
+                while (System.nanoTime() < end) {
+                    Account account = hotAccounts > 0 && random.nextDouble() < hotShare
+                            ? accounts[random.nextInt(hotAccounts)]
+                            : accounts[random.nextInt(accounts.length)];
+                    long start = System.nanoTime();
+                    shards.call(account.id(), () -> store.deposit(account, 100));
+                    long elapsed = System.nanoTime() - start;
+                    if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+                    samples[count++] = elapsed;
+                    operations.increment();
+                }
+                latencies[index] = Arrays.copyOf(samples, count);
+            });
+        }
+        for (Thread caller : callers) caller.join();
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%-8s %,10.0f ops/s  p50=%6.1f us  p99=%7.1f us  max=%8.1f us  %s%n", name,
+                operations.sum() / (double) seconds, percentile(all, 0.50), percentile(all, 0.99),
+                all.length == 0 ? 0 : all[all.length - 1] / 1_000.0, shards);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1_000.0;
+    }
+}
@@ -0,0 +1,106 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * Measures how long the memory store takes to become ready with a long ledger, with and without
+ * balance snapshots:
+ * <pre>
+ *   java -Xmx3g -cp benchmarks/target/benchmarks.jar org.example.StartupBenchmark dir [transactions] [accounts] [tail]
+ * </pre>
+ * The ledger in {@code dir} is topped up to {@code transactions} deposits (10M by default) over
+ * {@code accounts} accounts. The benchmark writes a snapshot and appends {@code tail} more deposits
+ * without one, as if the server crashed between snapshots. It then opens the store twice. The first
+ * open loads the snapshot and replays the tail; its output shows the time until the store is ready
+ * and the time until the older history is back. The second open replays the whole ledger.
+ */
+public class StartupBenchmark {
+    private static final long SNAPSHOT_INTERVAL_MS = 24L * 60 * 60 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: StartupBenchmark dir [transactions] [accounts] [tail]");
+            return;
+        }
+        Path dir = Path.of(args[0]);
+        long transactions = args.length > 1 ? Long.parseLong(args[1]) : 10_000_000;
+        int accountCount = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int tail = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+        AuthPool auth = new AuthPool(1, 16);
+
+        deleteSnapshots(dir);
+        MemoryBankStore store = open(dir, 0, auth);
+        List<Account> accounts = accounts(store, accountCount);
+        long missing = transactions - store.ledger().getLastSequence();
+        if (missing > 0) {
+            long start = System.nanoTime();
+            deposit(store, accounts, missing);
+            System.out.printf("Generated %d transactions in %d ms%n", missing, (System.nanoTime() - start) / 1_000_000);
+        }
+        store.shutdown();
+
+        // A snapshot of the whole ledger, written on shutdown, then a tail that no snapshot covers.
+        open(dir, SNAPSHOT_INTERVAL_MS, auth).shutdown();
+        store = open(dir, 0, auth);
+        deposit(store, accounts, tail);
+        store.shutdown();
+        store = null;
+        System.gc();
+
+        System.out.println("-- with snapshot");
+        long start = System.nanoTime();
+        store = open(dir, SNAPSHOT_INTERVAL_MS, auth);
+        long ready = System.nanoTime() - start;
+        store.awaitHistory();
+        long history = System.nanoTime() - start;
+        System.out.printf("Ready in %d ms, history complete in %d ms%n", ready / 1_000_000, history / 1_000_000);
+        store.shutdown();
+        store = null;
+        System.gc();
+
+        System.out.println("-- without snapshot");
+        start = System.nanoTime();
+        store = open(dir, 0, auth);
+        System.out.printf("Ready in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+        store.shutdown();
+    }
+
+    private static MemoryBankStore open(Path dir, long snapshotIntervalMillis, AuthPool auth) throws IOException {
+        return new MemoryBankStore(dir, 64L * 1024 * 1024, "never", 0, snapshotIntervalMillis, auth);
+    }
+
+    private static List<Account> accounts(MemoryBankStore store, int count) {
+        String hash = BCrypt.hashpw("startup", BCrypt.gensalt());
+        List<Account> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String username = String.format("startbench%08d", i);
+            Account account = store.findUser(username);
+            accounts.add(account != null ? account : store.createAccount(username, hash));
+        }
+        return accounts;
+    }
+
+    private static void deposit(MemoryBankStore store, List<Account> accounts, long count) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long i = 0; i < count; i++) {
+            store.deposit(accounts.get((int) (i % accounts.size())), 100 + random.nextInt(100_000));
+        }
+    }
+
+    /** Removes snapshots left by an earlier run, so the first open replays the ledger from scratch. */
+    private static void deleteSnapshots(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (Stream<Path> listing = Files.list(dir)) {
+            for (Path p : listing.filter(p -> p.getFileName().toString().startsWith("snapshot-")).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
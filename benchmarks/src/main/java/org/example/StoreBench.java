@@ -0,0 +1,74 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link Database} operations against the embedded memory store. Writes go to {@code writer}, which
+ * starts with enough money that withdrawals never fail. Reads use {@code reader}, which holds a
+ * fixed 100-row history, so read costs do not drift as the write benchmarks add rows.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreBench {
+    private Path dir;
+    private Account writer;
+    private Account reader;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = EmbeddedStore.start();
+        writer = EmbeddedStore.register("bench-writer");
+        reader = EmbeddedStore.register("bench-reader");
+        Database.deposit(writer, 1_000_000_000_00L);
+        for (int i = 0; i < 100; i++) Database.deposit(reader, 1_000 + i);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        EmbeddedStore.stop(dir);
+    }
+
+    @Benchmark
+    public boolean deposit() {
+        return Database.deposit(writer, 1250);
+    }
+
+    @Benchmark
+    public boolean withdraw() {
+        return Database.withdraw(writer, 1250);
+    }
+
+    @Benchmark
+    public long balance() {
+        return Database.getBalance(reader);
+    }
+
+    /** The legacy {@code TRANSACTIONS} reply's rows: the whole history, formatted. */
+    @Benchmark
+    public List<String> transactions() {
+        return Database.getTransactions(reader);
+    }
+
+    @Benchmark
+    public HistoryQuery historyPage(Blackhole blackhole) throws SQLException, IOException {
+        return Database.streamTransactions(reader, HistoryQuery.firstPage(100, 0, 0),
+                (id, type, amount, timestamp) -> blackhole.consume(amount));
+    }
+}
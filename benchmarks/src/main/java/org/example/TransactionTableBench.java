@@ -0,0 +1,48 @@
+package org.example;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The GUI turning a {@code TRANSACTIONS} reply into table rows ({@link ClientGUI#parseTransactions},
+ * the parsing half of {@code updateTransactionTable}). The reply is built the way the server builds
+ * it, with {@code rows} lines.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransactionTableBench {
+    @Param({"10", "100", "1000"})
+    public int rows;
+
+    private String reply;
+
+    @Setup
+    public void setUp() {
+        StringBuilder body = new StringBuilder();
+        long millis = Timestamp.valueOf("2026-03-14 09:26:53").getTime();
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) body.append('\n');
+            body.append(i % 3 == 0 ? "WITHDRAW" : "DEPOSIT").append(": ");
+            Money.appendTo(body, 10_000 + i * 137L).append(" at ").append(new Timestamp(millis + i * 60_000L));
+        }
+        reply = body.toString();
+    }
+
+    @Benchmark
+    public List<Object[]> parseTransactions() {
+        return ClientGUI.parseTransactions(reply);
+    }
+}
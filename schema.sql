@@ -21,5 +21,8 @@ CREATE TABLE IF NOT EXISTS transactions (
     type ENUM('DEPOSIT', 'WITHDRAW') NOT NULL,
     amount DECIMAL(15, 2) NOT NULL,
     timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    INDEX idx_transactions_account_time (account_id, timestamp, transaction_id, type, amount),
     FOREIGN KEY (account_id) REFERENCES accounts(account_id)
-);
\ No newline at end of file
+);
+
+-- Later changes are applied by the server at startup (see Migrations.java).
\ No newline at end of file
@@ -0,0 +1,8 @@
+package org.example;
+
+/**
+ * An account as resolved at login: the {@code accounts.account_id} primary key that every
+ * {@link Database} operation keys on, and the account number shown to the client.
+ */
+public record Account(int id, String number) {
+}
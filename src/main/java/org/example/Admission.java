@@ -0,0 +1,123 @@
+package org.example;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a command may run now. Each connection and each logged-in account has a
+ * {@link TokenBucket} of commands per second, and at most {@code bank.limit.maxInFlight} commands
+ * run at once across the server. A command over any limit is refused straight away with a
+ * {@code BUSY} reply rather than queued, so one noisy client cannot build a backlog in front of
+ * the store. A rate or cap of 0 turns that limit off.
+ * <p>
+ * Once {@link #close()} is called, for a shutdown, every command is refused with a hint to
+ * reconnect, and {@link #awaitIdle} waits for the ones still running.
+ */
+final class Admission {
+    static final int ADMITTED = 0;
+    static final int THROTTLED = 1;
+    static final int OVERLOADED = 2;
+    static final int CLOSING = 3;
+
+    private static final ConcurrentHashMap<Integer, TokenBucket> ACCOUNTS = new ConcurrentHashMap<>();
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+
+    private static final LongAdder THROTTLED_CONNECTION = Metrics.counter("bank_requests_throttled_total", "limit", "connection");
+    private static final LongAdder THROTTLED_ACCOUNT = Metrics.counter("bank_requests_throttled_total", "limit", "account");
+    private static final LongAdder REJECTED = Metrics.counter("bank_requests_rejected_total", "reason", "in_flight");
+    private static final LongAdder REJECTED_CLOSING = Metrics.counter("bank_requests_rejected_total", "reason", "closing");
+    private static volatile boolean closing;
+
+    static {
+        Metrics.gauge("bank_commands_in_flight", IN_FLIGHT::get);
+    }
+
+    private Admission() {
+    }
+
+    /** A new connection's rate limit, or null if connections are not limited. */
+    static TokenBucket connectionLimit() {
+        return ServerConfig.LIMIT_CONNECTION_RATE > 0
+                ? new TokenBucket(ServerConfig.LIMIT_CONNECTION_RATE, ServerConfig.LIMIT_CONNECTION_BURST) : null;
+    }
+
+    /**
+     * Admits one command from a connection limited by {@code connection} (null for none) and
+     * logged in to {@code account} (null if it is not). Returns {@link #ADMITTED}, after which the
+     * caller must {@link #release()} once the command is done, {@link #THROTTLED},
+     * {@link #OVERLOADED} or {@link #CLOSING}.
+     */
+    static int admit(TokenBucket connection, Account account) {
+        if (closing) {
+            REJECTED_CLOSING.increment();
+            return CLOSING;
+        }
+        if (connection != null && !connection.tryTake()) {
+            THROTTLED_CONNECTION.increment();
+            return THROTTLED;
+        }
+        if (account != null && ServerConfig.LIMIT_ACCOUNT_RATE > 0 && !accountLimit(account.id()).tryTake()) {
+            THROTTLED_ACCOUNT.increment();
+            return THROTTLED;
+        }
+        if (IN_FLIGHT.incrementAndGet() > ServerConfig.LIMIT_MAX_IN_FLIGHT && ServerConfig.LIMIT_MAX_IN_FLIGHT > 0) {
+            IN_FLIGHT.decrementAndGet();
+            REJECTED.increment();
+            return OVERLOADED;
+        }
+        // Checked again after counting the command in, so awaitIdle cannot miss it.
+        if (closing) {
+            IN_FLIGHT.decrementAndGet();
+            REJECTED_CLOSING.increment();
+            return CLOSING;
+        }
+        return ADMITTED;
+    }
+
+    static void release() {
+        IN_FLIGHT.decrementAndGet();
+    }
+
+    /** The reason given to the client for a refused command. */
+    static String reason(int outcome) {
+        switch (outcome) {
+            case THROTTLED:
+                return "Too many requests, slow down";
+            case CLOSING:
+                return "Server restarting, reconnect shortly";
+            default:
+                return "Server busy, try again later";
+        }
+    }
+
+    /** Refuses every command from now on. */
+    static void close() {
+        closing = true;
+    }
+
+    static boolean isClosing() {
+        return closing;
+    }
+
+    static int inFlight() {
+        return IN_FLIGHT.get();
+    }
+
+    /** Waits until no admitted command is running or {@code deadlineNanos} passes; true if none is. */
+    static boolean awaitIdle(long deadlineNanos) throws InterruptedException {
+        while (IN_FLIGHT.get() > 0) {
+            if (System.nanoTime() - deadlineNanos >= 0) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    // One bucket per account that has logged in since startup; a few dozen bytes each.
+    private static TokenBucket accountLimit(int accountId) {
+        TokenBucket bucket = ACCOUNTS.get(accountId);
+        if (bucket != null) return bucket;
+        return ACCOUNTS.computeIfAbsent(accountId,
+                id -> new TokenBucket(ServerConfig.LIMIT_ACCOUNT_RATE, ServerConfig.LIMIT_ACCOUNT_BURST));
+    }
+}
@@ -0,0 +1,157 @@
+package org.example;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * Runs BCrypt on a small set of dedicated threads, so a burst of logins can use at most
+ * {@code threads} cores. Everything else keeps running on the connection threads. Callers block
+ * until their hash is done. At most {@code capacity} hashes wait; beyond that, callers get
+ * {@link BusyException} right away instead of joining a queue they would likely time out in.
+ * Waiting logins run before waiting registrations, since they let existing users back in.
+ */
+class AuthPool {
+    static final int PRIORITY_LOGIN = 0;
+    static final int PRIORITY_REGISTER = 1;
+
+    /** Thrown when the queue is full. */
+    static class BusyException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BusyException() {
+            super("Server busy, try again later");
+        }
+    }
+
+    private final int capacity;
+    private final PriorityBlockingQueue<Task<?>> queue = new PriorityBlockingQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    AuthPool(int threads, int capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < threads; i++) {
+            Thread.ofPlatform().name("auth-" + i).daemon().start(this::workLoop);
+        }
+    }
+
+    boolean verify(String password, String hash) throws BusyException {
+        return call(PRIORITY_LOGIN, () -> BCrypt.checkpw(password, hash));
+    }
+
+    String hash(String password) throws BusyException {
+        return call(PRIORITY_REGISTER, () -> BCrypt.hashpw(password, BCrypt.gensalt()));
+    }
+
+    private <T> T call(int priority, Supplier<T> work) throws BusyException {
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            rejected.increment();
+            Metrics.error("auth_busy");
+            throw new BusyException();
+        }
+        Task<T> task = new Task<>(priority, sequence.getAndIncrement(), System.nanoTime(), work);
+        queue.add(task);
+        try {
+            return task.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    int getQueued() {
+        return queued.get();
+    }
+
+    int getRunning() {
+        return running.get();
+    }
+
+    long getCompleted() {
+        return completed.sum();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    double getAverageWaitMillis() {
+        long n = completed.sum();
+        return n == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / n;
+    }
+
+    double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("auth queued=%d/%d running=%d completed=%d rejected=%d avgWaitMs=%.3f maxWaitMs=%.3f",
+                getQueued(), capacity, getRunning(), getCompleted(), getRejected(), getAverageWaitMillis(),
+                getMaxWaitMillis());
+    }
+
+    private void workLoop() {
+        while (true) {
+            Task<?> task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            queued.decrementAndGet();
+            running.incrementAndGet();
+            long waited = System.nanoTime() - task.enqueuedAt;
+            waitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+                completed.increment();
+            }
+        }
+    }
+
+    private static final class Task<T> implements Comparable<Task<?>> {
+        final int priority;
+        final long sequence;
+        final long enqueuedAt;
+        final Supplier<T> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Task(int priority, long sequence, long enqueuedAt, Supplier<T> work) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+            this.work = work;
+        }
+
+        void run() {
+            try {
+                result.complete(work.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            int byPriority = Integer.compare(priority, other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
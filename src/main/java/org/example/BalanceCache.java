@@ -0,0 +1,155 @@
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of account balances in minor units, kept in step with this server's own
+ * deposits and withdrawals.
+ * <p>
+ * Accounts are split into 64 stripes by id. Each stripe has its own lock and its own LRU order
+ * over an equal share of the capacity, so reads of different stripes never wait for each other
+ * and eviction is LRU within a stripe rather than across the whole cache.
+ * <p>
+ * A write brackets its database transaction with {@link #beginWrite} and {@link #endWrite}. On
+ * success, {@code endWrite} adds the change to the cached balance. Changes commute, so it doesn't
+ * matter which of two concurrent writes reaches the cache first. A read that misses loads the
+ * balance from the database. It installs the result only if no write touched that stripe of
+ * accounts while the load was running. Otherwise the loaded value might be missing a change the
+ * cache has already counted, or might include one it is about to count. Writes made by other
+ * servers are not seen; run one server per database or turn the cache off.
+ */
+final class BalanceCache {
+    static final long MISS = -1;
+    private static final int STRIPES = 64;
+
+    /** One stripe's entries and write bookkeeping, all guarded by the stripe. */
+    private final class Stripe {
+        final LinkedHashMap<Integer, Long> entries;
+        // A counter bumped by every write, and the writes in progress.
+        long epoch;
+        int writing;
+
+        Stripe(int capacity) {
+            entries = new LinkedHashMap<>(Math.min(capacity, 1 << 12) * 4 / 3 + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                    if (size() <= capacity) return false;
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+    }
+
+    private final int capacity;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder discardedLoads = new LongAdder();
+
+    BalanceCache(int capacity) {
+        this.capacity = capacity;
+        // The shares add up to capacity; below 64 entries each stripe still holds one.
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, capacity / STRIPES + (i < capacity % STRIPES ? 1 : 0)));
+        }
+    }
+
+    /** Returns the cached balance in minor units, or {@link #MISS}. */
+    long get(int accountId) {
+        Stripe stripe = stripe(accountId);
+        Long balance;
+        synchronized (stripe) {
+            balance = stripe.entries.get(accountId);
+        }
+        if (balance == null) {
+            misses.increment();
+            return MISS;
+        }
+        hits.increment();
+        return balance;
+    }
+
+    /** Call before loading a balance that missed; pass the result to {@link #load}. */
+    long loadTicket(int accountId) {
+        Stripe stripe = stripe(accountId);
+        synchronized (stripe) {
+            return stripe.writing > 0 ? -1 : stripe.epoch;
+        }
+    }
+
+    /** Installs a loaded balance unless a write to the stripe overlapped the load. */
+    void load(int accountId, long ticket, long balance) {
+        Stripe stripe = stripe(accountId);
+        synchronized (stripe) {
+            if (ticket >= 0 && stripe.writing == 0 && stripe.epoch == ticket) {
+                stripe.entries.put(accountId, balance);
+                return;
+            }
+        }
+        discardedLoads.increment();
+    }
+
+    void beginWrite(int accountId) {
+        Stripe stripe = stripe(accountId);
+        synchronized (stripe) {
+            stripe.writing++;
+            stripe.epoch++;
+        }
+    }
+
+    /** Ends a write, adding {@code delta} minor units to the cached balance if it committed. */
+    void endWrite(int accountId, long delta) {
+        Stripe stripe = stripe(accountId);
+        synchronized (stripe) {
+            stripe.writing--;
+            stripe.epoch++;
+            if (delta != 0) stripe.entries.computeIfPresent(accountId, (id, balance) -> balance + delta);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    long getDiscardedLoads() {
+        return discardedLoads.sum();
+    }
+
+    double getHitRatio() {
+        long n = hits.sum() + misses.sum();
+        return n == 0 ? 0 : hits.sum() / (double) n;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("balanceCache size=%d/%d hits=%d misses=%d hitRatio=%.3f evictions=%d discardedLoads=%d",
+                size(), capacity, getHits(), getMisses(), getHitRatio(), getEvictions(), getDiscardedLoads());
+    }
+
+    private Stripe stripe(int accountId) {
+        return stripes[accountId & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,147 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Every account's balance at one point of the {@link MappedLedger}, so a restart only replays the
+ * ledger after it. Each entry also holds the id and time of the account's last transaction. That
+ * id is the account's own watermark. The snapshot is taken stripe by stripe while traffic goes
+ * on, so an entry may already include changes after {@link #sequence}, and replay skips an
+ * account's records up to its watermark.
+ * <p>
+ * File layout, all big-endian, in {@code snapshot-<sequence>.bin}:
+ * <pre>
+ *   magic i32, version i32, sequence i64, count i32,
+ *   count x (accountId i32, balance i64, lastId i64, lastMillis i64),
+ *   crc i32 (CRC32C of everything before it)
+ * </pre>
+ * A snapshot is written to a temporary file, forced and renamed into place. Older snapshots are
+ * then deleted.
+ */
+final class BalanceSnapshot {
+    private static final int MAGIC = 0x42534E50;
+    private static final int VERSION = 1;
+
+    /** Every ledger record up to here is included. */
+    final long sequence;
+    int size;
+    int[] accountIds;
+    long[] balances;
+    long[] lastIds;
+    long[] lastMillis;
+
+    BalanceSnapshot(long sequence, int expected) {
+        this.sequence = sequence;
+        accountIds = new int[Math.max(16, expected)];
+        balances = new long[accountIds.length];
+        lastIds = new long[accountIds.length];
+        lastMillis = new long[accountIds.length];
+    }
+
+    void add(int accountId, long balance, long lastId, long at) {
+        if (size == accountIds.length) {
+            int capacity = size * 2;
+            accountIds = Arrays.copyOf(accountIds, capacity);
+            balances = Arrays.copyOf(balances, capacity);
+            lastIds = Arrays.copyOf(lastIds, capacity);
+            lastMillis = Arrays.copyOf(lastMillis, capacity);
+        }
+        accountIds[size] = accountId;
+        balances[size] = balance;
+        lastIds[size] = lastId;
+        lastMillis[size] = at;
+        size++;
+    }
+
+    void write(Path dir) throws IOException {
+        Path target = dir.resolve(String.format("snapshot-%020d.bin", sequence));
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024), new CRC32C());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sequence);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(accountIds[i]);
+                out.writeLong(balances[i]);
+                out.writeLong(lastIds[i]);
+                out.writeLong(lastMillis[i]);
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (Path old : snapshotFiles(dir)) {
+            if (!old.equals(target)) Files.deleteIfExists(old);
+        }
+    }
+
+    /** Reads the newest intact snapshot in {@code dir}, or returns null if there is none. */
+    static BalanceSnapshot latest(Path dir) {
+        List<Path> files;
+        try {
+            files = snapshotFiles(dir);
+        } catch (IOException e) {
+            Metrics.error("storage");
+            Log.error("storage_error").put("op", "listSnapshots").thrown(e).log();
+            return null;
+        }
+        for (int i = files.size() - 1; i >= 0; i--) {
+            try {
+                return read(files.get(i));
+            } catch (IOException e) {
+                Log.warn("snapshot_ignored").put("file", files.get(i)).put("reason", e.getMessage()).log();
+            }
+        }
+        return null;
+    }
+
+    private static BalanceSnapshot read(Path file) throws IOException {
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 64 * 1024), new CRC32C());
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC) throw new IOException("not a snapshot");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("unsupported version " + version);
+            BalanceSnapshot snapshot = new BalanceSnapshot(in.readLong(), 0);
+            int count = in.readInt();
+            if (count < 0) throw new IOException("bad account count " + count);
+            for (int i = 0; i < count; i++) {
+                snapshot.add(in.readInt(), in.readLong(), in.readLong(), in.readLong());
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) throw new IOException("checksum mismatch");
+            return snapshot;
+        }
+    }
+
+    private static List<Path> snapshotFiles(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> listing = Files.list(dir)) {
+            return listing.filter(p -> p.getFileName().toString().matches("snapshot-\\d+\\.bin"))
+                    .sorted()
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.example;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where users, accounts and transactions live. {@link Database} hands every call to the store
+ * picked by {@code bank.store}: {@link JdbcBankStore} for MySQL, or {@link MemoryBankStore} for an
+ * embedded ledger that needs no database server.
+ * <p>
+ * Amounts are {@link Money} minor units. Deposits and withdrawals of zero or less fail, and so
+ * does a withdrawal larger than the balance.
+ */
+public interface BankStore {
+
+    /** Receives history rows in order as they are read. */
+    interface TransactionVisitor {
+        void row(long id, String type, long amount, Timestamp timestamp) throws IOException;
+    }
+
+    /**
+     * Creates a user and its account. Returns false if the name is taken or the store failed, and
+     * throws if the auth pool is too busy to hash the password.
+     */
+    boolean registerUser(String username, String password) throws AuthPool.BusyException;
+
+    /**
+     * Checks a password. The result's {@code status} is {@code SUCCESS} (with {@code accountId} and
+     * {@code accountNumber}), {@code FAILURE} or {@code BUSY} (with a {@code message}), or
+     * {@code ERROR} if the store failed.
+     */
+    Map<String, String> loginUser(String username, String password);
+
+    /** Looks up an account by number, or returns null if there is none. */
+    Account findAccount(String accountNumber);
+
+    boolean deposit(Account account, long amount);
+
+    boolean withdraw(Account account, long amount);
+
+    /**
+     * Starts a deposit and returns a future of whether it was applied, for callers that must not
+     * wait on the store, such as an account shard. The default runs {@link #deposit} straight away.
+     */
+    default CompletableFuture<Boolean> depositAsync(Account account, long amount) {
+        return CompletableFuture.completedFuture(deposit(account, amount));
+    }
+
+    /** Starts a withdrawal; see {@link #depositAsync}. */
+    default CompletableFuture<Boolean> withdrawAsync(Account account, long amount) {
+        return CompletableFuture.completedFuture(withdraw(account, amount));
+    }
+
+    /** Returns the balance, or -1 if it could not be read. */
+    long getBalance(Account account);
+
+    /** The account's whole history, oldest first. */
+    List<TransactionRecord> getTransactionHistory(Account account);
+
+    /**
+     * Passes one page of history to {@code visitor}, in {@code (timestamp, id)} order. Returns the
+     * query for the next page, or null if this was the last.
+     */
+    HistoryQuery streamTransactions(Account account, HistoryQuery query, TransactionVisitor visitor)
+            throws SQLException, IOException;
+
+    /**
+     * Gets ready for traffic before the server starts listening, e.g. by opening connections and
+     * filling caches. Returns when that is done.
+     */
+    void warmUp();
+
+    /** Finishes pending writes and releases files and connections. */
+    void shutdown();
+}
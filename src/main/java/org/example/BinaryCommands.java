@@ -0,0 +1,270 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.example.BinaryProtocol.*;
+
+/**
+ * Server side of protocol v2: decodes one request frame, runs it against the connection's
+ * {@link Session} and encodes the response into a reused frame.
+ */
+class BinaryCommands {
+    private static final int HISTORY_ROWS_PER_FRAME = 100;
+    private static final CompletableFuture<Boolean> OPEN = CompletableFuture.completedFuture(true);
+    private static final CompletableFuture<Boolean> CLOSE = CompletableFuture.completedFuture(false);
+
+    /**
+     * Receives the intermediate frames of a streamed reply, ahead of the final one. The frame is
+     * reused for the next batch once {@code send} returns.
+     */
+    interface Chunks {
+        void send(BinaryFrame frame) throws IOException;
+    }
+
+    private final Session session;
+
+    BinaryCommands(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Handles {@code request} and leaves the reply in {@code response} by the time the returned
+     * future completes. Most commands complete it before returning; a deposit or withdrawal that
+     * waits for group commit completes it once the batch commits. Streamed replies
+     * ({@code HISTORY}) pass their earlier frames to {@code chunks} first. The future holds false
+     * if the client asked to close the connection.
+     */
+    CompletableFuture<Boolean> handle(BinaryFrame request, BinaryFrame response, Chunks chunks) throws IOException {
+        int opcode;
+        int requestId;
+        try {
+            opcode = request.getByte();
+            requestId = request.getInt();
+        } catch (ProtocolException e) {
+            Metrics.error("bad_request");
+            fail(response, 0, 0, STATUS_BAD_REQUEST, "Truncated request header");
+            return OPEN;
+        }
+
+        boolean limited = opcode != OP_EXIT;
+        if (limited) {
+            int admission = session.admit();
+            if (admission != Admission.ADMITTED) {
+                fail(response, opcode, requestId, STATUS_BUSY, Admission.reason(admission));
+                return OPEN;
+            }
+        }
+        long start = System.nanoTime();
+        boolean pending = false;
+        try {
+            CompletableFuture<Boolean> result = dispatch(opcode, requestId, request, response, chunks);
+            if (result.isDone()) return result;
+            pending = true;
+            return result.whenComplete((open, e) -> done(limited, opcode, start));
+        } finally {
+            if (!pending) done(limited, opcode, start);
+        }
+    }
+
+    private void done(boolean limited, int opcode, long start) {
+        if (limited) Admission.release();
+        session.commandDone(commandName(opcode), "v2", System.nanoTime() - start);
+    }
+
+    private CompletableFuture<Boolean> dispatch(int opcode, int requestId, BinaryFrame request, BinaryFrame response, Chunks chunks)
+            throws IOException {
+        try {
+            switch (opcode) {
+                case OP_REGISTER: {
+                    String username = request.getString();
+                    String password = request.getString();
+                    try {
+                        if (session.register(username, password)) {
+                            ok(response, opcode, requestId);
+                        } else {
+                            fail(response, opcode, requestId, STATUS_FAILED, "Registration failed");
+                        }
+                    } catch (AuthPool.BusyException e) {
+                        fail(response, opcode, requestId, STATUS_BUSY, e.getMessage());
+                    }
+                    break;
+                }
+                case OP_LOGIN: {
+                    String username = request.getString();
+                    String password = request.getString();
+                    Map<String, String> result = session.login(username, password);
+                    if ("SUCCESS".equals(result.get("status"))) {
+                        ok(response, opcode, requestId).putString(session.account().number()).putString(newToken());
+                    } else {
+                        String outcome = result.get("status");
+                        int status = "ERROR".equals(outcome) ? STATUS_SERVER_ERROR
+                                : "BUSY".equals(outcome) ? STATUS_BUSY : STATUS_FAILED;
+                        fail(response, opcode, requestId, status, result.get("message"));
+                    }
+                    break;
+                }
+                case OP_DEPOSIT:
+                case OP_WITHDRAW: {
+                    long amount = request.getLong();
+                    if (!authenticated(response, opcode, requestId)) break;
+                    if (amount <= 0) {
+                        fail(response, opcode, requestId, STATUS_BAD_REQUEST, "Invalid amount");
+                        break;
+                    }
+                    CompletableFuture<Boolean> done = opcode == OP_DEPOSIT
+                            ? session.depositAsync(amount) : session.withdrawAsync(amount);
+                    return done.thenApply(applied -> {
+                        if (applied) {
+                            ok(response, opcode, requestId).putLong(amount);
+                        } else {
+                            fail(response, opcode, requestId, STATUS_FAILED, opcode == OP_DEPOSIT ? "Deposit failed" : "Withdrawal failed");
+                        }
+                        return true;
+                    });
+                }
+                case OP_BALANCE: {
+                    if (!authenticated(response, opcode, requestId)) break;
+                    long balance = session.balance();
+                    if (balance < 0) {
+                        fail(response, opcode, requestId, STATUS_SERVER_ERROR, "Balance unavailable");
+                    } else {
+                        ok(response, opcode, requestId).putLong(balance);
+                    }
+                    break;
+                }
+                case OP_TRANSACTIONS: {
+                    if (!authenticated(response, opcode, requestId)) break;
+                    List<TransactionRecord> records = session.transactions();
+                    ok(response, opcode, requestId).putInt(records.size());
+                    for (TransactionRecord record : records) {
+                        response.putByte(typeCode(record.type()))
+                                .putLong(record.amount())
+                                .putLong(record.timestamp().getTime());
+                    }
+                    break;
+                }
+                case OP_HISTORY: {
+                    int pageSize = request.getInt();
+                    long afterMillis = request.getLong();
+                    long afterId = request.getLong();
+                    long fromMillis = request.getLong();
+                    long toMillis = request.getLong();
+                    if (!authenticated(response, opcode, requestId)) break;
+                    history(new HistoryQuery(pageSize, afterMillis, afterId, fromMillis, toMillis),
+                            requestId, response, chunks);
+                    break;
+                }
+                case OP_RESUME: {
+                    String token = request.getString();
+                    if (session.resume(token)) {
+                        ok(response, opcode, requestId).putString(session.account().number()).putString(newToken());
+                    } else {
+                        fail(response, opcode, requestId, STATUS_UNAUTHENTICATED, "Invalid or expired token");
+                    }
+                    break;
+                }
+                case OP_EXIT:
+                    session.exit();
+                    ok(response, opcode, requestId);
+                    return CLOSE;
+                default:
+                    Metrics.error("bad_request");
+                    fail(response, opcode, requestId, STATUS_BAD_REQUEST, "Unknown opcode " + opcode);
+            }
+        } catch (ProtocolException e) {
+            Metrics.error("bad_request");
+            fail(response, opcode, requestId, STATUS_BAD_REQUEST, "Malformed request");
+        }
+        return OPEN;
+    }
+
+    /** Fills {@code response} with the unsolicited notice sent to v2 clients at shutdown. */
+    static void restarting(BinaryFrame response) {
+        fail(response, OP_EXIT, 0, STATUS_BUSY, Admission.reason(Admission.CLOSING));
+    }
+
+    /** Replaces {@code response} with a server error for {@code request}, whose command failed unexpectedly. */
+    static void internalError(BinaryFrame request, BinaryFrame response) {
+        int opcode = 0;
+        int requestId = 0;
+        try {
+            request.rewind();
+            opcode = request.getByte();
+            requestId = request.getInt();
+        } catch (ProtocolException ignored) {
+        }
+        fail(response, opcode, requestId, STATUS_SERVER_ERROR, "Internal error");
+    }
+
+    private String newToken() {
+        String token = session.issueToken();
+        return token != null ? token : "";
+    }
+
+    private void history(HistoryQuery query, int requestId, BinaryFrame response, Chunks chunks) throws IOException {
+        HistoryWriter writer = new HistoryWriter(requestId, response, chunks);
+        HistoryQuery next;
+        try {
+            next = session.history(query, writer);
+        } catch (SQLException e) {
+            Metrics.error("sql");
+            fail(response, OP_HISTORY, requestId, STATUS_SERVER_ERROR, "History unavailable");
+            return;
+        }
+        writer.encode(true);
+        response.putLong(next == null ? 0 : next.afterMillis()).putLong(next == null ? -1 : next.afterId());
+    }
+
+    /** Buffers up to a frame's worth of rows and sends each full batch as a non-final frame. */
+    private static final class HistoryWriter implements BankStore.TransactionVisitor {
+        private final int requestId;
+        private final BinaryFrame frame;
+        private final Chunks chunks;
+        private final byte[] types = new byte[HISTORY_ROWS_PER_FRAME];
+        private final long[] amounts = new long[HISTORY_ROWS_PER_FRAME];
+        private final long[] millis = new long[HISTORY_ROWS_PER_FRAME];
+        private int rows;
+
+        HistoryWriter(int requestId, BinaryFrame frame, Chunks chunks) {
+            this.requestId = requestId;
+            this.frame = frame;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void row(long id, String type, long amount, Timestamp timestamp) throws IOException {
+            types[rows] = (byte) typeCode(type);
+            amounts[rows] = amount;
+            millis[rows] = timestamp.getTime();
+            if (++rows == HISTORY_ROWS_PER_FRAME) {
+                encode(false);
+                chunks.send(frame);
+            }
+        }
+
+        void encode(boolean last) {
+            ok(frame, OP_HISTORY, requestId).putByte(last ? 1 : 0).putInt(rows);
+            for (int i = 0; i < rows; i++) frame.putByte(types[i]).putLong(amounts[i]).putLong(millis[i]);
+            rows = 0;
+        }
+    }
+
+    private boolean authenticated(BinaryFrame response, int opcode, int requestId) {
+        if (!session.isAuthenticated()) fail(response, opcode, requestId, STATUS_UNAUTHENTICATED, "Authentication required");
+        return session.isAuthenticated();
+    }
+
+    private static BinaryFrame ok(BinaryFrame response, int opcode, int requestId) {
+        return response.clear().putByte(opcode).putInt(requestId).putByte(STATUS_OK);
+    }
+
+    private static void fail(BinaryFrame response, int opcode, int requestId, int status, String message) {
+        response.clear().putByte(opcode).putInt(requestId).putByte(status).putString(message);
+    }
+}
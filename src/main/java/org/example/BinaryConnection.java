@@ -0,0 +1,248 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import static org.example.BinaryProtocol.*;
+
+/**
+ * Serves a protocol v2 connection with request pipelining. The connection's thread keeps reading
+ * frames without waiting for replies. Balance and history commands of a logged-in session run
+ * on the account's shard of {@link Session#accounts()}, ordered per account; commands for
+ * different accounts overlap. Each reply
+ * carries its request's id, so clients match replies to requests by id rather than by position.
+ * <p>
+ * A shard only runs the command. Every reply, including each frame of a streamed
+ * {@code HISTORY}, is queued for the connection's own writer thread. A client that stops reading
+ * therefore holds up only its own connection, never a shard. A deposit or withdrawal waiting for
+ * group commit frees its shard straight away and is answered once the batch commits. A later
+ * balance or history read on the same connection waits for it, so the read sees the change.
+ * <p>
+ * Commands that change session state ({@code LOGIN}, {@code REGISTER}, {@code EXIT}) and any
+ * command sent before login run on the reading thread once everything in flight has been
+ * answered. Later commands therefore always see the session state the client expects. The
+ * writer flushes whenever its queue runs dry, so a burst of pipelined requests is answered with
+ * a few large writes.
+ */
+class BinaryConnection {
+    private static final int MAX_IN_FLIGHT = 128;
+    // Frames that grew past this, e.g. for a long TRANSACTIONS reply, are left to the GC.
+    private static final int RECYCLE_CAPACITY = 16 * 1024;
+    private static final CompletableFuture<Boolean> NO_WRITES = CompletableFuture.completedFuture(true);
+
+    /**
+     * A frame for the writer, and the window permits to give back once it is written. If
+     * {@code written} is set, the writer flushes after the frame and counts it down.
+     */
+    private record Reply(BinaryFrame frame, int permits, CountDownLatch written) {
+        Reply(BinaryFrame frame, int permits) {
+            this(frame, permits, null);
+        }
+    }
+
+    // Tells the writer the connection is done; it flushes what came before and stops.
+    private static final Reply END = new Reply(null, 0);
+
+    private final Socket socket;
+    private final DataInputStream input;
+    // Only the writer thread touches out.
+    private final OutputStream out;
+    private final BinaryCommands commands;
+    private final Session session;
+    private final ConnectionReaper.Lease lease;
+    private final Semaphore window = new Semaphore(MAX_IN_FLIGHT);
+    private final ConcurrentLinkedQueue<BinaryFrame> frames = new ConcurrentLinkedQueue<>();
+    private final LinkedBlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // The last deposit or withdrawal this connection queued on its account's shard.
+    private volatile CompletableFuture<Boolean> writes = NO_WRITES;
+
+    BinaryConnection(Socket socket, DataInputStream input, OutputStream output, Session session,
+                     ConnectionReaper.Lease lease) {
+        this.socket = socket;
+        this.lease = lease;
+        this.input = input;
+        this.out = new BufferedOutputStream(output, 8192);
+        this.session = session;
+        this.commands = new BinaryCommands(session);
+        this.writer = Thread.ofVirtual().name("replies-" + session.id()).unstarted(this::writeLoop);
+    }
+
+    /** Serves requests until the client exits or the connection fails. */
+    void serve() throws IOException {
+        lease.onShutdown(this::noticeRestarting);
+        writer.start();
+        try {
+            while (true) {
+                BinaryFrame request = frame();
+                ClientHandler.awaitRequest(input, lease);
+                request.readFrom(input, BinaryFrame.MAX_REQUEST_BODY);
+                int opcode = request.getByte();
+                request.rewind();
+
+                if (session.isAuthenticated() && isAccountScoped(opcode)) {
+                    window.acquireUninterruptibly();
+                    Session.accounts().execute(session.account().id(), () -> runPipelined(request, opcode, false));
+                } else {
+                    // Holding the whole window means every earlier reply has been written.
+                    window.acquireUninterruptibly(MAX_IN_FLIGHT);
+                    BinaryFrame response = frame();
+                    boolean open = commands.handle(request, response, this::sendChunk).join();
+                    recycle(request);
+                    replies.add(new Reply(response, MAX_IN_FLIGHT));
+                    if (!open) {
+                        awaitWriter();
+                        return;
+                    }
+                }
+            }
+        } finally {
+            replies.add(END);
+        }
+    }
+
+    // Runs on the account's shard. A read that arrives while this connection still has a change
+    // waiting for group commit is put back on the shard once the change is done, without
+    // holding the shard meanwhile; deferred marks the second run.
+    private void runPipelined(BinaryFrame request, int opcode, boolean deferred) {
+        CompletableFuture<Boolean> pendingWrites = writes;
+        if (!deferred && isRead(opcode) && !pendingWrites.isDone()) {
+            int accountId = session.account().id();
+            pendingWrites.whenComplete((applied, e) ->
+                    Session.accounts().execute(accountId, () -> runPipelined(request, opcode, true)));
+            return;
+        }
+
+        BinaryFrame response = frame();
+        CompletableFuture<Boolean> result;
+        try {
+            result = commands.handle(request, response, this::sendChunk);
+        } catch (IOException | RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        if (!isRead(opcode) && !result.isDone()) writes = result;
+        result.whenComplete((open, e) -> {
+            if (e != null) {
+                Metrics.error("task");
+                Log.error("command_failed").put("session", session.id())
+                        .thrown(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e).log();
+                BinaryCommands.internalError(request, response);
+            }
+            recycle(request);
+            replies.add(new Reply(response, 1));
+        });
+    }
+
+    /** Queues one frame of a streamed reply; the command reuses its frame, so this sends a copy. */
+    private void sendChunk(BinaryFrame chunk) {
+        replies.add(new Reply(frame().set(chunk), 0));
+    }
+
+    // Writes replies in the order they were queued, flushing whenever the queue runs dry. Once
+    // the client is gone it keeps taking replies and dropping them, so the reading thread never
+    // waits for window permits that would not come back.
+    private void writeLoop() {
+        boolean open = true;
+        while (true) {
+            Reply reply;
+            try {
+                reply = replies.take();
+            } catch (InterruptedException e) {
+                close();
+                return;
+            }
+            for (; reply != null; reply = replies.poll()) {
+                if (reply == END) {
+                    if (open) flush();
+                    return;
+                }
+                if (open) open = write(reply.frame());
+                window.release(reply.permits());
+                recycle(reply.frame());
+                if (reply.written() != null) {
+                    if (open) open = flush();
+                    reply.written().countDown();
+                }
+            }
+            if (open) open = flush();
+        }
+    }
+
+    private boolean write(BinaryFrame frame) {
+        try {
+            frame.writeTo(out);
+            return true;
+        } catch (IOException e) {
+            close();
+            return false;
+        }
+    }
+
+    private boolean flush() {
+        try {
+            out.flush();
+            lease.touch();
+            return true;
+        } catch (IOException e) {
+            close();
+            return false;
+        }
+    }
+
+    // Runs on a notice thread at shutdown and returns once the writer has sent the notice after
+    // everything already queued.
+    private void noticeRestarting() {
+        BinaryFrame notice = frame();
+        BinaryCommands.restarting(notice);
+        CountDownLatch written = new CountDownLatch(1);
+        replies.add(new Reply(notice, 0, written));
+        try {
+            written.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Lets the writer send everything queued, e.g. EXIT's reply, before the socket is closed.
+    private void awaitWriter() {
+        replies.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static boolean isAccountScoped(int opcode) {
+        return opcode == OP_DEPOSIT || opcode == OP_WITHDRAW || isRead(opcode);
+    }
+
+    private static boolean isRead(int opcode) {
+        return opcode == OP_BALANCE || opcode == OP_TRANSACTIONS || opcode == OP_HISTORY;
+    }
+
+    private BinaryFrame frame() {
+        BinaryFrame frame = frames.poll();
+        return frame != null ? frame.clear() : new BinaryFrame(256);
+    }
+
+    private void recycle(BinaryFrame frame) {
+        if (frame.capacity() <= RECYCLE_CAPACITY) frames.add(frame);
+    }
+}
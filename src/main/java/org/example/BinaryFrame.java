@@ -0,0 +1,187 @@
+package org.example;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable buffer holding one protocol v2 frame body. On the wire a frame is a 4-byte big-endian
+ * body length followed by the body. A connection keeps one instance for reading and one for
+ * writing, and reuses them for every frame: the backing array only grows, and apart from
+ * {@link #getString()} nothing allocates per frame. A frame being read grows only as its body
+ * arrives, so a length prefix alone never makes it allocate.
+ * <p>
+ * Integers are big-endian. Strings are a 2-byte length followed by UTF-8.
+ */
+final class BinaryFrame {
+    /** The largest reply a client accepts. */
+    static final int MAX_BODY = 16 * 1024 * 1024;
+    /**
+     * The largest request the server accepts. The biggest valid request is {@code REGISTER} or
+     * {@code LOGIN}, two strings; this matches the 64 KB a legacy command may take.
+     */
+    static final int MAX_REQUEST_BODY = 64 * 1024;
+
+    private byte[] buf;
+    private int limit;
+    private int pos;
+
+    BinaryFrame(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /** Empties the frame for writing. */
+    BinaryFrame clear() {
+        limit = 0;
+        pos = 0;
+        return this;
+    }
+
+    /** Moves the read position back to the start of the body. */
+    BinaryFrame rewind() {
+        pos = 0;
+        return this;
+    }
+
+    /** Replaces the contents with a copy of {@code other}'s body. */
+    BinaryFrame set(BinaryFrame other) {
+        clear();
+        ensure(other.limit);
+        System.arraycopy(other.buf, 0, buf, 0, other.limit);
+        limit = other.limit;
+        return this;
+    }
+
+    int length() {
+        return limit;
+    }
+
+    int remaining() {
+        return limit - pos;
+    }
+
+    BinaryFrame putByte(int v) {
+        ensure(1);
+        buf[limit++] = (byte) v;
+        return this;
+    }
+
+    BinaryFrame putInt(int v) {
+        ensure(4);
+        buf[limit++] = (byte) (v >>> 24);
+        buf[limit++] = (byte) (v >>> 16);
+        buf[limit++] = (byte) (v >>> 8);
+        buf[limit++] = (byte) v;
+        return this;
+    }
+
+    BinaryFrame putLong(long v) {
+        ensure(8);
+        for (int shift = 56; shift >= 0; shift -= 8) buf[limit++] = (byte) (v >>> shift);
+        return this;
+    }
+
+    BinaryFrame putString(String s) {
+        int lengthAt = limit;
+        ensure(2 + s.length() * 3);
+        limit += 2;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[limit++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[limit++] = (byte) (0xC0 | (c >> 6));
+                buf[limit++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[limit++] = (byte) (0xF0 | (cp >> 18));
+                buf[limit++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[limit++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[limit++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                buf[limit++] = (byte) (0xE0 | (c >> 12));
+                buf[limit++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[limit++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        int length = limit - lengthAt - 2;
+        if (length > 0xFFFF) throw new IllegalArgumentException("string too long: " + length + " bytes");
+        buf[lengthAt] = (byte) (length >>> 8);
+        buf[lengthAt + 1] = (byte) length;
+        return this;
+    }
+
+    int getByte() throws ProtocolException {
+        need(1);
+        return buf[pos++] & 0xFF;
+    }
+
+    int getInt() throws ProtocolException {
+        need(4);
+        int v = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+        pos += 4;
+        return v;
+    }
+
+    long getLong() throws ProtocolException {
+        need(8);
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (buf[pos++] & 0xFF);
+        return v;
+    }
+
+    String getString() throws ProtocolException {
+        need(2);
+        int length = ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+        pos += 2;
+        need(length);
+        String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return s;
+    }
+
+    /** Writes the length prefix and body. The caller flushes. */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(limit >>> 24);
+        out.write(limit >>> 16);
+        out.write(limit >>> 8);
+        out.write(limit);
+        out.write(buf, 0, limit);
+    }
+
+    /** Replaces the contents with the next frame from {@code in}, ready for reading. */
+    void readFrom(DataInputStream in) throws IOException {
+        readFrom(in, MAX_BODY);
+    }
+
+    /** Like {@link #readFrom(DataInputStream)}, refusing bodies longer than {@code maxBody}. */
+    void readFrom(DataInputStream in, int maxBody) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxBody) throw new ProtocolException("bad frame length " + length);
+        int read = 0;
+        while (read < length) {
+            if (read == buf.length) buf = Arrays.copyOf(buf, Math.min(length, buf.length * 2));
+            int n = in.read(buf, read, Math.min(length, buf.length) - read);
+            if (n < 0) throw new EOFException();
+            read += n;
+        }
+        limit = length;
+        pos = 0;
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+
+    private void ensure(int n) {
+        if (limit + n > buf.length) buf = Arrays.copyOf(buf, Math.max(limit + n, buf.length * 2));
+    }
+
+    private void need(int n) throws ProtocolException {
+        if (pos + n > limit) throw new ProtocolException("truncated frame");
+    }
+}
@@ -0,0 +1,131 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Constants and connection negotiation for protocol v2, the binary protocol.
+ * <p>
+ * A v2 client opens with a 4-byte hello: {@link #MAGIC_HI}, {@link #MAGIC_LO}, the highest
+ * version it speaks and a reserved zero byte. The server answers with the same four bytes
+ * carrying the version it picked. {@link #VERSION_LEGACY} means "carry on with writeUTF
+ * strings". A client that sends no hello is a legacy client. The magic read as a legacy length
+ * prefix would announce a 47 KB command, which no legacy client sends.
+ * <p>
+ * Every v2 message is a {@link BinaryFrame}. Requests carry
+ * {@code opcode:u8 requestId:u32 payload}; responses carry
+ * {@code opcode:u8 requestId:u32 status:u8 payload}, echoing the request's opcode and id. Amounts
+ * are signed 64-bit counts of minor units (cents). Payloads per opcode:
+ * <pre>
+ *   REGISTER      req: username:str password:str     resp: -
+ *   LOGIN         req: username:str password:str     resp: accountNumber:str token:str
+ *   DEPOSIT       req: amount:i64                    resp: amount:i64
+ *   WITHDRAW      req: amount:i64                    resp: amount:i64
+ *   BALANCE       req: -                             resp: balance:i64
+ *   TRANSACTIONS  req: -                             resp: count:u32 then count x (type:u8 amount:i64 epochMillis:i64)
+ *   EXIT          req: -                             resp: -, then the server closes
+ *   HISTORY       req: pageSize:u32 afterMillis:i64 afterId:i64 fromMillis:i64 toMillis:i64
+ *                 resp: last:u8 count:u32 then count x (type:u8 amount:i64 epochMillis:i64),
+ *                       and when last is 1: nextMillis:i64 nextId:i64
+ *   RESUME        req: token:str                     resp: accountNumber:str token:str
+ * </pre>
+ * A response whose status is not {@link #STATUS_OK} carries {@code message:str} instead.
+ * {@code LOGIN} and {@code RESUME} hand out a resume token (empty if none could be issued). A
+ * later connection can send it in {@code RESUME} to authenticate without the password. Each
+ * {@code RESUME} replaces the presented token with a new one, and {@code EXIT} revokes it.
+ * {@link #STATUS_BUSY} means the server shed the request under load and it may be retried.
+ * When the server shuts down it sends each open connection an unsolicited {@code EXIT} response
+ * with request id 0 and status {@code BUSY}, then closes it; the client should reconnect.
+ * <p>
+ * {@code HISTORY} is the one streamed reply: a page arrives as several frames with the request's
+ * id, each holding up to 100 rows, and only the frame with {@code last} set ends the request. It
+ * returns the rows after the keyset cursor {@code (afterMillis, afterId)} in timestamp order; an
+ * {@code afterId} of -1 starts at the beginning and a zero bound means unbounded. The final frame
+ * carries the cursor of the next page, with {@code nextId} -1 when there are no more rows.
+ */
+final class BinaryProtocol {
+    static final int MAGIC_HI = 0xBA;
+    static final int MAGIC_LO = 0x4E;
+    static final int VERSION_LEGACY = 1;
+    static final int VERSION_2 = 2;
+
+    static final int OP_REGISTER = 0x01;
+    static final int OP_LOGIN = 0x02;
+    static final int OP_DEPOSIT = 0x03;
+    static final int OP_WITHDRAW = 0x04;
+    static final int OP_BALANCE = 0x05;
+    static final int OP_TRANSACTIONS = 0x06;
+    static final int OP_EXIT = 0x07;
+    static final int OP_HISTORY = 0x08;
+    static final int OP_RESUME = 0x09;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_FAILED = 1;
+    static final int STATUS_UNAUTHENTICATED = 2;
+    static final int STATUS_BAD_REQUEST = 3;
+    static final int STATUS_SERVER_ERROR = 4;
+    static final int STATUS_BUSY = 5;
+
+    static final int TYPE_DEPOSIT = 1;
+    static final int TYPE_WITHDRAW = 2;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Server side: checks whether the connection opens with a hello. If it does, consumes it and
+     * returns the client's highest version. Otherwise leaves the stream untouched and returns 0.
+     */
+    static int readHello(BufferedInputStream in) throws IOException {
+        in.mark(4);
+        int hi = in.read();
+        int lo = in.read();
+        if (hi < 0 || lo < 0) throw new EOFException();
+        if (hi != MAGIC_HI || lo != MAGIC_LO) {
+            in.reset();
+            return 0;
+        }
+        int version = in.read();
+        if (version < 0 || in.read() < 0) throw new EOFException();
+        return version;
+    }
+
+    static void writeHello(OutputStream out, int version) throws IOException {
+        out.write(new byte[]{(byte) MAGIC_HI, (byte) MAGIC_LO, (byte) version, 0});
+        out.flush();
+    }
+
+    /** Client side: offers v2 and returns the version the server picked. */
+    static int negotiate(DataInputStream in, OutputStream out) throws IOException {
+        writeHello(out, VERSION_2);
+        int hi = in.readUnsignedByte();
+        int lo = in.readUnsignedByte();
+        int version = in.readUnsignedByte();
+        in.readUnsignedByte();
+        if (hi != MAGIC_HI || lo != MAGIC_LO) throw new IOException("server did not answer the protocol hello");
+        return version;
+    }
+
+    static int typeCode(String type) {
+        return "WITHDRAW".equals(type) ? TYPE_WITHDRAW : TYPE_DEPOSIT;
+    }
+
+    /** The legacy command name for {@code opcode}, e.g. {@code DEPOSIT}, or {@code UNKNOWN}. */
+    static String commandName(int opcode) {
+        switch (opcode) {
+            case OP_REGISTER: return "REGISTER";
+            case OP_LOGIN: return "LOGIN";
+            case OP_DEPOSIT: return "DEPOSIT";
+            case OP_WITHDRAW: return "WITHDRAW";
+            case OP_BALANCE: return "BALANCE";
+            case OP_TRANSACTIONS: return "TRANSACTIONS";
+            case OP_EXIT: return "EXIT";
+            case OP_HISTORY: return "HISTORY";
+            case OP_RESUME: return "RESUME";
+            default: return "UNKNOWN";
+        }
+    }
+}
@@ -11,10 +11,15 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ClientGUI {
     private Socket socket;
@@ -28,6 +33,16 @@ public class ClientGUI {
     private JTable transactionTable;
     private JLabel statusLabel;
     private JLabel profileLabel;
+    private JButton loadMoreButton;
+    // Cursor of the next history page, or empty once the last page has been loaded.
+    private String historyCursor = "";
+    private static final int HISTORY_PAGE_SIZE = 100;
+    // Protocol v2 state; the request frame is only touched on the event dispatch thread.
+    private boolean binary;
+    // Lets the client log back in after a dropped connection without asking for the password.
+    private volatile String resumeToken;
+    private final BinaryFrame request = new BinaryFrame(128);
+    private int nextRequestId;
 
     public static void main(String[] args) {
         try {
@@ -42,9 +57,8 @@ public class ClientGUI {
 
     public ClientGUI() {
         try {
-            socket = new Socket("localhost", 4000);
-            input = new DataInputStream(socket.getInputStream());
-            output = new DataOutputStream(socket.getOutputStream());
+            connect();
+            binary = negotiateBinary();
             createGUI();
             listenToServer();
         } catch (IOException e) {
@@ -52,6 +66,28 @@ public class ClientGUI {
         }
     }
 
+    private void connect() throws IOException {
+        socket = new Socket("localhost", 4000);
+        input = new DataInputStream(socket.getInputStream());
+        output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    // Offers protocol v2 unless -Dbank.protocol=legacy; falls back to strings if the server declines.
+    private boolean negotiateBinary() throws IOException {
+        if ("legacy".equals(System.getProperty("bank.protocol"))) return false;
+        socket.setSoTimeout(3000);
+        try {
+            boolean v2 = BinaryProtocol.negotiate(input, output) == BinaryProtocol.VERSION_2;
+            socket.setSoTimeout(0);
+            return v2;
+        } catch (SocketTimeoutException e) {
+            // A server that predates v2 reads the hello as the start of a command; reconnect.
+            socket.close();
+            connect();
+            return false;
+        }
+    }
+
     private void createGUI() {
         frame = new JFrame("Secure Banking System");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -277,6 +313,14 @@ public class ClientGUI {
         transactionPanel.add(transactionTitle, BorderLayout.NORTH);
         transactionPanel.add(tableScrollPane, BorderLayout.CENTER);
 
+        loadMoreButton = createStyledButton("Load More");
+        loadMoreButton.setToolTipText("Load older transactions");
+        loadMoreButton.setVisible(false);
+        JPanel loadMorePanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        loadMorePanel.setOpaque(false);
+        loadMorePanel.add(loadMoreButton);
+        transactionPanel.add(loadMorePanel, BorderLayout.SOUTH);
+
         JPanel topPanel = new JPanel(new BorderLayout(10, 10));
         topPanel.setOpaque(false);
         topPanel.add(profilePanel, BorderLayout.NORTH);
@@ -287,9 +331,10 @@ public class ClientGUI {
 
         depositButton.addActionListener(e -> {
             String amt = JOptionPane.showInputDialog(frame, "Enter deposit amount:");
-            if (amt != null && !amt.trim().isEmpty() && amt.matches("\\d+(\\.\\d{1,2})?")) {
+            long amount = amt == null ? Money.INVALID : Money.parse(amt.trim());
+            if (amount > 0) {
                 showLoading(true);
-                sendCommand("DEPOSIT:" + amt.trim());
+                sendCommand("DEPOSIT:" + Money.format(amount));
             } else if (amt != null) {
                 showError("Invalid amount format.");
             }
@@ -297,9 +342,10 @@ public class ClientGUI {
 
         withdrawButton.addActionListener(e -> {
             String amt = JOptionPane.showInputDialog(frame, "Enter withdrawal amount:");
-            if (amt != null && !amt.trim().isEmpty() && amt.matches("\\d+(\\.\\d{1,2})?")) {
+            long amount = amt == null ? Money.INVALID : Money.parse(amt.trim());
+            if (amount > 0) {
                 showLoading(true);
-                sendCommand("WITHDRAW:" + amt.trim());
+                sendCommand("WITHDRAW:" + Money.format(amount));
             } else if (amt != null) {
                 showError("Invalid amount format.");
             }
@@ -310,16 +356,24 @@ public class ClientGUI {
             sendCommand("BALANCE");
         });
 
-        // Fixed the transactions button to not include account number since server already knows it
+        // History arrives a page at a time; each chunk is appended as soon as it is received
         transactionsButton.addActionListener(e -> {
             showLoading(true);
-            sendCommand("TRANSACTIONS");
+            clearTransactionTable();
+            sendCommand("HISTORY:" + HISTORY_PAGE_SIZE);
+        });
+
+        loadMoreButton.addActionListener(e -> {
+            showLoading(true);
+            loadMoreButton.setEnabled(false);
+            sendCommand("HISTORY:" + HISTORY_PAGE_SIZE + ":" + historyCursor);
         });
 
         logoutButton.addActionListener(e -> {
             int confirm = JOptionPane.showConfirmDialog(frame, "Are you sure you want to logout?", "Confirm Logout", JOptionPane.YES_NO_OPTION);
             if (confirm == JOptionPane.YES_OPTION) {
                 accountNumber = null;
+                resumeToken = null;
                 profileLabel.setText("Account: Not logged in");
                 clearTransactionTable();
                 cardLayout.show(mainPanel, "login");
@@ -392,19 +446,74 @@ public class ClientGUI {
 
     private void sendCommand(String cmd) {
         try {
-            output.writeUTF(cmd);
-        } catch (IOException e) {
+            if (binary) {
+                encodeBinary(cmd);
+                request.writeTo(output);
+            } else {
+                output.writeUTF(cmd);
+            }
+            output.flush();
+        } catch (IOException | IllegalArgumentException e) {
             showError("Failed to send command: " + e.getMessage());
             showLoading(false);
         }
     }
 
+    // Builds the v2 request for one of the command strings the buttons produce.
+    private void encodeBinary(String cmd) {
+        String[] parts = cmd.split(":");
+        request.clear();
+        switch (parts[0]) {
+            case "REGISTER":
+            case "LOGIN":
+                request.putByte(parts[0].equals("LOGIN") ? BinaryProtocol.OP_LOGIN : BinaryProtocol.OP_REGISTER)
+                        .putInt(++nextRequestId)
+                        .putString(parts.length > 1 ? parts[1] : "")
+                        .putString(parts.length > 2 ? parts[2] : "");
+                break;
+            case "DEPOSIT":
+            case "WITHDRAW":
+                long amount = Money.parse(parts.length > 1 ? parts[1] : "");
+                if (amount < 0) throw new IllegalArgumentException("Invalid amount");
+                request.putByte(parts[0].equals("DEPOSIT") ? BinaryProtocol.OP_DEPOSIT : BinaryProtocol.OP_WITHDRAW)
+                        .putInt(++nextRequestId)
+                        .putLong(amount);
+                break;
+            case "BALANCE":
+                request.putByte(BinaryProtocol.OP_BALANCE).putInt(++nextRequestId);
+                break;
+            case "TRANSACTIONS":
+                request.putByte(BinaryProtocol.OP_TRANSACTIONS).putInt(++nextRequestId);
+                break;
+            case "RESUME":
+                request.putByte(BinaryProtocol.OP_RESUME).putInt(++nextRequestId).putString(parts[1]);
+                break;
+            case "HISTORY":
+                HistoryQuery query = HistoryQuery.firstPage(Integer.parseInt(parts[1]), 0, 0)
+                        .withCursor(parts.length > 2 ? parts[2] : "");
+                request.putByte(BinaryProtocol.OP_HISTORY)
+                        .putInt(++nextRequestId)
+                        .putInt(query.pageSize())
+                        .putLong(query.afterMillis())
+                        .putLong(query.afterId())
+                        .putLong(query.fromMillis())
+                        .putLong(query.toMillis());
+                break;
+            default:
+                request.putByte(BinaryProtocol.OP_EXIT).putInt(++nextRequestId);
+        }
+    }
+
     private void listenToServer() {
+        if (binary) {
+            listenToServerBinary();
+            return;
+        }
         new Thread(() -> {
             try {
                 while (true) {
                     String message = input.readUTF().trim();
-                    System.out.println("Server message: " + message); // Debug message
+                    Log.debug("server_message").put("message", message).log();
 
                     if (message.startsWith("SUCCESS: Logged in.")) {
                         accountNumber = message.split("Account: ")[1];
@@ -412,7 +521,22 @@ public class ClientGUI {
                             profileLabel.setText("Account: " + accountNumber);
                             cardLayout.show(mainPanel, "dashboard");
                             showLoading(false);
+                            sendCommand("TOKEN");
                         });
+                    } else if (message.startsWith("TOKEN:")) {
+                        resumeToken = message.substring("TOKEN:".length());
+                    } else if (message.equals("ERROR: Invalid or expired token")) {
+                        SwingUtilities.invokeLater(this::resumeFailed);
+                    } else if (message.startsWith("HISTORY:")) {
+                        List<Object[]> rows = new ArrayList<>();
+                        for (String line : message.substring("HISTORY:".length()).split("\n")) {
+                            String[] parts = line.split(",");
+                            if (parts.length >= 3) rows.add(new Object[]{parts[0], parts[1], parts[2]});
+                        }
+                        SwingUtilities.invokeLater(() -> appendTransactionRows(rows));
+                    } else if (message.startsWith("HISTORY_END:")) {
+                        String cursor = message.substring("HISTORY_END:".length());
+                        SwingUtilities.invokeLater(() -> finishHistoryPage(cursor));
                     } else if (message.startsWith("TRANSACTIONS:")) {
                         SwingUtilities.invokeLater(() -> {
                             updateTransactionTable(message.replace("TRANSACTIONS:", "").trim());
@@ -426,6 +550,7 @@ public class ClientGUI {
                     }
                 }
             } catch (IOException e) {
+                if (reconnect()) return;
                 SwingUtilities.invokeLater(() -> {
                     showError("Connection lost: " + e.getMessage());
                     showLoading(false);
@@ -434,15 +559,176 @@ public class ClientGUI {
         }).start();
     }
 
-    private void updateTransactionTable(String transactions) {
+    // Runs on the listener thread once the connection drops. If we hold a resume token, opens a
+    // new connection, resumes the session on it and starts a new listener.
+    private boolean reconnect() {
+        String token = resumeToken;
+        if (token == null) return false;
+        try {
+            connect();
+            binary = negotiateBinary();
+        } catch (IOException e) {
+            return false;
+        }
+        SwingUtilities.invokeLater(() -> sendCommand("RESUME:" + token));
+        listenToServer();
+        return true;
+    }
+
+    private void resumeFailed() {
+        resumeToken = null;
+        accountNumber = null;
+        profileLabel.setText("Account: Not logged in");
+        clearTransactionTable();
+        cardLayout.show(mainPanel, "login");
+        showLoading(false);
+        showError("Your session has expired. Please log in again.");
+    }
+
+    private void listenToServerBinary() {
+        new Thread(() -> {
+            BinaryFrame reply = new BinaryFrame(4096);
+            try {
+                while (true) {
+                    reply.readFrom(input);
+                    handleBinaryReply(reply);
+                }
+            } catch (IOException e) {
+                if (reconnect()) return;
+                SwingUtilities.invokeLater(() -> {
+                    showError("Connection lost: " + e.getMessage());
+                    showLoading(false);
+                });
+            }
+        }).start();
+    }
+
+    // Runs on the listener thread; everything needed is decoded before handing off to Swing.
+    private void handleBinaryReply(BinaryFrame reply) throws IOException {
+        int opcode = reply.getByte();
+        reply.getInt();
+        int status = reply.getByte();
+        if (status != BinaryProtocol.STATUS_OK) {
+            if (opcode == BinaryProtocol.OP_RESUME) {
+                SwingUtilities.invokeLater(this::resumeFailed);
+                return;
+            }
+            String message = "ERROR: " + reply.getString();
+            SwingUtilities.invokeLater(() -> {
+                showMessage(message);
+                showLoading(false);
+            });
+            return;
+        }
+
+        switch (opcode) {
+            case BinaryProtocol.OP_LOGIN:
+            case BinaryProtocol.OP_RESUME:
+                accountNumber = reply.getString();
+                String token = reply.getString();
+                resumeToken = token.isEmpty() ? null : token;
+                SwingUtilities.invokeLater(() -> {
+                    profileLabel.setText("Account: " + accountNumber);
+                    cardLayout.show(mainPanel, "dashboard");
+                    showLoading(false);
+                });
+                return;
+            case BinaryProtocol.OP_TRANSACTIONS: {
+                List<Object[]> rows = readTransactionRows(reply);
+                SwingUtilities.invokeLater(() -> {
+                    showTransactionRows(rows);
+                    showLoading(false);
+                });
+                return;
+            }
+            case BinaryProtocol.OP_HISTORY: {
+                boolean last = reply.getByte() == 1;
+                List<Object[]> rows = readTransactionRows(reply);
+                SwingUtilities.invokeLater(() -> appendTransactionRows(rows));
+                if (last) {
+                    long nextMillis = reply.getLong();
+                    long nextId = reply.getLong();
+                    String cursor = nextId < 0 ? "" : nextMillis + "_" + nextId;
+                    SwingUtilities.invokeLater(() -> finishHistoryPage(cursor));
+                }
+                return;
+            }
+            case BinaryProtocol.OP_EXIT:
+                return;
+            default:
+                break;
+        }
+
+        String message;
+        switch (opcode) {
+            case BinaryProtocol.OP_REGISTER:
+                message = "SUCCESS: Registration successful";
+                break;
+            case BinaryProtocol.OP_DEPOSIT:
+                message = "SUCCESS: Deposited " + Money.format(reply.getLong());
+                break;
+            case BinaryProtocol.OP_WITHDRAW:
+                message = "SUCCESS: Withdrew " + Money.format(reply.getLong());
+                break;
+            case BinaryProtocol.OP_BALANCE:
+                message = "SUCCESS: Current balance: " + Money.format(reply.getLong());
+                break;
+            default:
+                message = "SUCCESS";
+        }
+        SwingUtilities.invokeLater(() -> {
+            showMessage(message);
+            showLoading(false);
+        });
+    }
+
+    private static List<Object[]> readTransactionRows(BinaryFrame reply) throws IOException {
+        int count = reply.getInt();
+        List<Object[]> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String type = reply.getByte() == BinaryProtocol.TYPE_WITHDRAW ? "WITHDRAW" : "DEPOSIT";
+            String amount = Money.format(reply.getLong());
+            String date = new Timestamp(reply.getLong()).toString();
+            rows.add(new Object[]{date, type, amount});
+        }
+        return rows;
+    }
+
+    // One chunk of a history page: appended without clearing what earlier chunks and pages added.
+    private void appendTransactionRows(List<Object[]> rows) {
         DefaultTableModel model = (DefaultTableModel) transactionTable.getModel();
-        model.setRowCount(0); // Clear existing rows
+        for (Object[] row : rows) model.addRow(row);
+        if (!rows.isEmpty()) resizeTransactionColumns();
+    }
 
-        if (transactions.isEmpty()) {
-            // Show empty message in table
+    private void finishHistoryPage(String cursor) {
+        historyCursor = cursor;
+        DefaultTableModel model = (DefaultTableModel) transactionTable.getModel();
+        if (model.getRowCount() == 0) model.addRow(new Object[]{"No transactions found", "", ""});
+        loadMoreButton.setVisible(!cursor.isEmpty());
+        loadMoreButton.setEnabled(true);
+        showLoading(false);
+    }
+
+    private void showTransactionRows(List<Object[]> rows) {
+        DefaultTableModel model = (DefaultTableModel) transactionTable.getModel();
+        model.setRowCount(0);
+        if (rows.isEmpty()) {
             model.addRow(new Object[]{"No transactions found", "", ""});
             return;
         }
+        for (Object[] row : rows) model.addRow(row);
+        resizeTransactionColumns();
+    }
+
+    private void updateTransactionTable(String transactions) {
+        showTransactionRows(parseTransactions(transactions));
+    }
+
+    /** Splits a {@code TRANSACTIONS} reply body into table rows of date, type and amount. */
+    static List<Object[]> parseTransactions(String transactions) {
+        List<Object[]> rows = new ArrayList<>();
+        if (transactions.isEmpty()) return rows;
 
         // Handle different possible transaction formats
         if (transactions.contains(";")) {
@@ -452,7 +738,7 @@ public class ClientGUI {
 
                 String[] parts = transaction.split(",");
                 if (parts.length >= 3) {
-                    model.addRow(new Object[]{parts[0], parts[1], parts[2]});
+                    rows.add(new Object[]{parts[0], parts[1], parts[2]});
                 }
             }
         } else if (transactions.contains("\n")) {
@@ -488,13 +774,16 @@ public class ClientGUI {
                     type = line.trim();
                 }
 
-                model.addRow(new Object[]{date, type, amount});
+                rows.add(new Object[]{date, type, amount});
             }
         } else {
             // Just show the raw text in the first column if we can't parse it
-            model.addRow(new Object[]{transactions, "", ""});
+            rows.add(new Object[]{transactions, "", ""});
         }
+        return rows;
+    }
 
+    private void resizeTransactionColumns() {
         // Resize columns to fit content
         for (int column = 0; column < transactionTable.getColumnCount(); column++) {
             int width = 15;
@@ -510,13 +799,15 @@ public class ClientGUI {
     private void clearTransactionTable() {
         DefaultTableModel model = (DefaultTableModel) transactionTable.getModel();
         model.setRowCount(0);
+        historyCursor = "";
+        loadMoreButton.setVisible(false);
     }
 
     private void showMessage(String message) {
         int messageType = JOptionPane.INFORMATION_MESSAGE;
         String title = "Message";
 
-        if (message.startsWith("ERROR") || message.contains("failed") || message.contains("invalid")) {
+        if (message.startsWith("ERROR") || message.startsWith("BUSY") || message.contains("failed") || message.contains("invalid")) {
             messageType = JOptionPane.ERROR_MESSAGE;
             title = "Error";
         } else if (message.startsWith("SUCCESS")) {
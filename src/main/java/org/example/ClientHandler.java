@@ -0,0 +1,141 @@
+package org.example;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+class ClientHandler implements Runnable {
+
+    private final Socket clientSocket;
+    private DataInputStream input;
+    private DataOutputStream output;
+    private final Session session = new Session();
+    private ConnectionReaper.Lease lease;
+    // Lets the shutdown notice write between replies; a lock rather than a monitor, so a virtual
+    // session thread blocked writing does not pin its carrier.
+    private final ReentrantLock writes = new ReentrantLock();
+
+    /** Thrown when no request starts within {@code bank.server.idleTimeoutMs}. */
+    static final class IdleTimeoutException extends SocketTimeoutException {
+        private static final long serialVersionUID = 1L;
+
+        IdleTimeoutException() {
+            super("Idle timeout");
+        }
+    }
+
+    public ClientHandler(Socket socket) {
+        this.clientSocket = socket;
+    }
+
+    public void run() {
+        Metrics.SESSIONS.increment();
+        lease = ConnectionReaper.track(this::close);
+        try {
+            BufferedInputStream buffered = new BufferedInputStream(Metrics.countIn(clientSocket.getInputStream()));
+            input = new DataInputStream(buffered);
+            output = new DataOutputStream(Metrics.countOut(clientSocket.getOutputStream()));
+
+            clientSocket.setSoTimeout(socketTimeoutMillis());
+            awaitRequest(buffered, lease);
+            int offered = BinaryProtocol.readHello(buffered);
+            if (offered > 0) {
+                int version = ServerConfig.PROTOCOL_V2_ENABLED && offered >= BinaryProtocol.VERSION_2
+                        ? BinaryProtocol.VERSION_2 : BinaryProtocol.VERSION_LEGACY;
+                BinaryProtocol.writeHello(output, version);
+                if (version == BinaryProtocol.VERSION_2) {
+                    serveBinary();
+                    return;
+                }
+            }
+
+            lease.onShutdown(this::noticeRestarting);
+            while (true) {
+//                output.writeUTF("Enter command (REGISTER, LOGIN, DEPOSIT, WITHDRAW, BALANCE, TRANSACTIONS, EXIT):");
+                awaitRequest(input, lease);
+                String received = input.readUTF();
+                if (!session.handle(received, this::reply)) return;
+            }
+        } catch (IOException e) {
+            String reason = disconnectReason(e);
+            if (reason.startsWith("timeout")) {
+                Metrics.counter("bank_connections_timed_out_total", "timeout", reason.substring("timeout_".length()))
+                        .increment();
+            } else if (!(e instanceof EOFException)) {
+                Metrics.error("client_io");
+            }
+            Log.info("disconnect").put("session", session.id()).put("remote", clientSocket.getRemoteSocketAddress())
+                    .put("reason", reason).log();
+        } finally {
+            ConnectionReaper.release(lease);
+            Metrics.SESSIONS.decrement();
+            close();
+        }
+    }
+
+    /**
+     * The socket timeout, set once per connection: the read timeout, or the idle timeout if that
+     * is shorter or reads are not limited. 0 if neither is set.
+     */
+    static int socketTimeoutMillis() {
+        long idle = ServerConfig.IDLE_TIMEOUT_MS;
+        long read = ServerConfig.READ_TIMEOUT_MS;
+        return (int) (read <= 0 ? Math.max(0, idle) : idle <= 0 ? read : Math.min(idle, read));
+    }
+
+    /**
+     * Waits up to the idle timeout for the next request to start. The socket keeps its one
+     * timeout throughout, so an idle wait just sits out several of them, and reading the rest of
+     * the request gets the read timeout without touching the socket again. {@code in} must
+     * support {@code mark}.
+     */
+    static void awaitRequest(InputStream in, ConnectionReaper.Lease lease) throws IOException {
+        long start = System.nanoTime();
+        in.mark(1);
+        while (true) {
+            try {
+                if (in.read() < 0) throw new EOFException();
+                break;
+            } catch (SocketTimeoutException e) {
+                long idle = ServerConfig.IDLE_TIMEOUT_MS;
+                if (idle > 0 && System.nanoTime() - start >= idle * 1_000_000) throw new IdleTimeoutException();
+            }
+        }
+        in.reset();
+        lease.touch();
+    }
+
+    static String disconnectReason(IOException e) {
+        if (e instanceof IdleTimeoutException) return "timeout_idle";
+        if (e instanceof SocketTimeoutException) return "timeout_read";
+        return e instanceof EOFException ? "closed" : e.getClass().getSimpleName();
+    }
+
+    private void reply(String message) throws IOException {
+        writes.lock();
+        try {
+            output.writeUTF(message);
+        } finally {
+            writes.unlock();
+        }
+        lease.touch();
+    }
+
+    private void noticeRestarting() {
+        try {
+            reply("BUSY: " + Admission.reason(Admission.CLOSING));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void close() {
+        try {
+            clientSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void serveBinary() throws IOException {
+        new BinaryConnection(clientSocket, input, output, session, lease).serve();
+    }
+}
@@ -4,19 +4,27 @@ import java.io.*;
 import java.net.*;
 import java.util.Scanner;
 
+/**
+ * Console client for the legacy protocol. Commands are typed with spaces, e.g.
+ * {@code LOGIN alice secret}, and sent colon-separated. The server does not prompt; it sends
+ * one reply per command, except {@code HISTORY}, whose reply ends with a {@code HISTORY_END:}
+ * frame, and {@code EXIT}, which gets none.
+ */
 public class Client_thread {
     public static void main(String[] args) throws IOException {
-        Socket socket = new Socket("localhost", 4000);
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        Socket socket = new Socket(host, port);
         DataInputStream input = new DataInputStream(socket.getInputStream());
         DataOutputStream output = new DataOutputStream(socket.getOutputStream());
         Scanner scanner = new Scanner(System.in);
 
         while (true) {
-            String serverPrompt = input.readUTF();
-            System.out.println(serverPrompt);
-
+            System.out.println("Enter command (REGISTER, LOGIN, DEPOSIT, WITHDRAW, BALANCE, TRANSACTIONS, HISTORY, EXIT):");
+            if (!scanner.hasNextLine()) break;
             String userInput = scanner.nextLine().trim();
-            String[] parts = userInput.split(" ");
+            if (userInput.isEmpty()) continue;
+            String[] parts = userInput.split("\\s+");
             String command = String.join(":", parts);
 
             output.writeUTF(command);
@@ -24,7 +32,13 @@ public class Client_thread {
 
             String response = input.readUTF();
             System.out.println(response);
+            if (parts[0].equalsIgnoreCase("HISTORY")) {
+                while (response.startsWith("HISTORY:")) {
+                    response = input.readUTF();
+                    System.out.println(response);
+                }
+            }
         }
         socket.close();
     }
-}
\ No newline at end of file
+}
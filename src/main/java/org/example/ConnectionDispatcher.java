@@ -0,0 +1,99 @@
+package org.example;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands accepted sockets to session threads, with at most {@code maxSessions} sessions running
+ * and at most {@code maxQueued} connections waiting for a free slot. When a session ends, its
+ * thread picks up the next queued connection itself. Connections beyond both limits are told
+ * the server is busy and closed.
+ */
+class ConnectionDispatcher {
+    private final ThreadFactory threads;
+    private final Semaphore sessions;
+    private final BlockingQueue<Socket> queue;
+    private final LongAdder rejected = new LongAdder();
+
+    ConnectionDispatcher(ThreadFactory threads, int maxSessions, int maxQueued) {
+        this.threads = threads;
+        this.sessions = new Semaphore(maxSessions);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, maxQueued));
+    }
+
+    void dispatch(Socket socket) {
+        if (sessions.tryAcquire()) {
+            start(socket);
+        } else if (queue.offer(socket)) {
+            drainQueue();
+        } else {
+            rejected.increment();
+            Metrics.error("server_busy");
+            reject(socket);
+        }
+    }
+
+    int queued() {
+        return queue.size();
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+
+    private void start(Socket socket) {
+        threads.newThread(() -> runSessions(socket)).start();
+    }
+
+    // The slot is given back however the sessions end, so a handler that throws cannot leak it
+    // or strand the connections queued behind it.
+    private void runSessions(Socket first) {
+        try {
+            for (Socket socket = first; socket != null; socket = queue.poll()) {
+                try {
+                    new ClientHandler(socket).run();
+                } catch (RuntimeException e) {
+                    Metrics.error("task");
+                    Log.error("session_failed").put("remote", socket.getRemoteSocketAddress()).thrown(e).log();
+                    close(socket);
+                }
+            }
+        } finally {
+            sessions.release();
+            drainQueue();
+        }
+    }
+
+    // A connection can be queued just after the last running session gave up its slot, so
+    // whoever frees a slot or queues a connection re-checks the queue.
+    private void drainQueue() {
+        while (!queue.isEmpty() && sessions.tryAcquire()) {
+            Socket socket = queue.poll();
+            if (socket == null) {
+                sessions.release();
+            } else {
+                start(socket);
+            }
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void reject(Socket socket) {
+        try (socket) {
+            new DataOutputStream(socket.getOutputStream()).writeUTF("ERROR: Server busy, try again later");
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package org.example;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded JDBC connection pool.
+ * <p>
+ * At most {@code maxSize} connections are handed out at once; callers beyond that wait up to
+ * {@code acquireTimeoutMillis} and then get an {@link SQLTimeoutException}. Idle connections are
+ * reused most-recently-used first, re-validated if they sat idle longer than the validation
+ * interval, and closed by a background housekeeper once idle for longer than
+ * {@code idleTimeoutMillis}. The housekeeper also keeps {@code minIdle} connections open so that
+ * requests don't pay the MySQL handshake.
+ * <p>
+ * Connections returned by {@link #getConnection()} go back to the pool on {@code close()}, with
+ * any open transaction rolled back and autocommit restored.
+ */
+public final class ConnectionPool {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutNanos;
+    private final long validationIntervalNanos;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LatencyHistogram waits = new LatencyHistogram();
+
+    public ConnectionPool(String url, String user, String password, int maxSize, int minIdle,
+                          long acquireTimeoutMillis, long idleTimeoutMillis,
+                          long validationIntervalMillis, long housekeepingIntervalMillis) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be at least 1");
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(Math.max(minIdle, 0), maxSize);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+        this.permits = new Semaphore(maxSize, true);
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, housekeepingIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                recordWait(start);
+                throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pc = takeIdle();
+            if (pc == null) pc = open();
+            active.incrementAndGet();
+            acquired.increment();
+            recordWait(start);
+            return pc.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens connections until {@code minIdle} are idle, so the first requests after startup
+     * don't pay for the handshake. Returns the number of connections opened.
+     */
+    public int warmUp() {
+        return warmUp(minIdle);
+    }
+
+    /** Like {@link #warmUp()}, but opens up to {@code target} idle connections, at most {@code maxSize}. */
+    public int warmUp(int target) {
+        int opened = 0;
+        while (!closed && idle.size() < target && reserveSlot()) {
+            try {
+                idle.offerLast(connect());
+                opened++;
+            } catch (SQLException e) {
+                total.decrementAndGet();
+                Log.error("pool_warm_up_failed").put("opened", opened).thrown(e).log();
+                break;
+            }
+        }
+        return opened;
+    }
+
+    public void shutdown() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) discard(pc);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public int getTotal() {
+        return total.get();
+    }
+
+    public int getWaiting() {
+        return permits.getQueueLength();
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getCreated() {
+        return created.sum();
+    }
+
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    public long getInvalidated() {
+        return invalidated.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long n = acquired.sum() + timeouts.sum();
+        return n == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / n;
+    }
+
+    /** How long {@link #getConnection()} waited, including waits that timed out. */
+    LatencyHistogram waitTimes() {
+        return waits;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pool active=%d idle=%d total=%d/%d waiting=%d acquired=%d timeouts=%d "
+                        + "created=%d evicted=%d invalidated=%d avgWaitMs=%.3f maxWaitMs=%.3f",
+                getActive(), getIdle(), getTotal(), maxSize, getWaiting(), getAcquired(), getTimeouts(),
+                getCreated(), getEvicted(), getInvalidated(), getAverageWaitMillis(), getMaxWaitMillis());
+    }
+
+    private PooledConnection takeIdle() {
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            if (System.nanoTime() - pc.lastUsed < validationIntervalNanos || isValid(pc)) return pc;
+            invalidated.increment();
+            discard(pc);
+        }
+        return null;
+    }
+
+    private PooledConnection open() throws SQLException {
+        total.incrementAndGet();
+        try {
+            return connect();
+        } catch (SQLException | RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private PooledConnection connect() throws SQLException {
+        Connection raw = DriverManager.getConnection(url, user, password);
+        created.increment();
+        return new PooledConnection(raw);
+    }
+
+    private boolean reserveSlot() {
+        int n;
+        do {
+            n = total.get();
+            if (n >= maxSize) return false;
+        } while (!total.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    private void release(PooledConnection pc) {
+        try {
+            if (closed || pc.broken || pc.raw.isClosed()) {
+                discard(pc);
+            } else {
+                if (!pc.raw.getAutoCommit()) {
+                    pc.raw.rollback();
+                    pc.raw.setAutoCommit(true);
+                }
+                pc.lastUsed = System.nanoTime();
+                idle.offerFirst(pc);
+            }
+        } catch (SQLException e) {
+            discard(pc);
+        } finally {
+            active.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    private void housekeep() {
+        long now = System.nanoTime();
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && idle.size() > minIdle) {
+            PooledConnection pc = it.next();
+            if (now - pc.lastUsed > idleTimeoutNanos && idle.removeLastOccurrence(pc)) {
+                evicted.increment();
+                discard(pc);
+            }
+        }
+        warmUp();
+    }
+
+    private boolean isValid(PooledConnection pc) {
+        try {
+            return pc.raw.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        total.decrementAndGet();
+        try {
+            pc.raw.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private void recordWait(long start) {
+        long waited = System.nanoTime() - start;
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        waits.record(waited);
+    }
+
+    private final class PooledConnection {
+        final Connection raw;
+        volatile long lastUsed = System.nanoTime();
+        volatile boolean broken;
+
+        PooledConnection(Connection raw) {
+            this.raw = raw;
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease(this));
+        }
+    }
+
+    /**
+     * Handle given to a caller for one checkout. Closing it returns the physical connection to
+     * the pool; any later use of the same handle fails instead of touching a connection that
+     * somebody else may now own.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pc;
+        private boolean returned;
+
+        Lease(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pc);
+                    }
+                    return null;
+                case "isClosed":
+                    if (returned) return true;
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pc.raw + "]";
+                default:
+                    break;
+            }
+            if (returned) throw new SQLException("Connection has already been returned to the pool");
+            try {
+                return method.invoke(pc.raw, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException sqlException) {
+                    String state = sqlException.getSQLState();
+                    if (state != null && state.startsWith("08")) pc.broken = true;
+                }
+                throw cause;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closes connections that have shown no sign of life for {@code limitMillis}. Every connection
+ * registers a {@link Lease} and touches it whenever a request arrives or a reply goes out. A
+ * daemon thread sweeps the leases every {@code intervalMillis} and closes the stale ones.
+ * <p>
+ * Socket timeouts already end idle thread-per-connection sessions by themselves. The reaper
+ * catches what they cannot: a session blocked writing to a client that stopped reading, and NIO
+ * connections, which have no thread of their own to time out.
+ */
+final class ConnectionReaper {
+    /** One tracked connection; {@code close} must be safe to call from any thread. */
+    static final class Lease {
+        private final Runnable close;
+        private volatile Runnable notice;
+        private volatile long lastActive = System.nanoTime();
+
+        private Lease(Runnable close) {
+            this.close = close;
+        }
+
+        void touch() {
+            lastActive = System.nanoTime();
+        }
+
+        /**
+         * Sets what {@link #closeAll} tells the client before closing, e.g. a reconnect hint. It
+         * runs on a thread of its own, must not close the connection and must not throw.
+         */
+        void onShutdown(Runnable notice) {
+            this.notice = notice;
+        }
+    }
+
+    private static final Set<Lease> LEASES = ConcurrentHashMap.newKeySet();
+    private static final LongAdder REAPED = Metrics.counter("bank_connections_reaped_total");
+
+    static {
+        Metrics.gauge("bank_connections_tracked", LEASES::size);
+    }
+
+    private ConnectionReaper() {
+    }
+
+    static Lease track(Runnable close) {
+        Lease lease = new Lease(close);
+        LEASES.add(lease);
+        return lease;
+    }
+
+    static void release(Lease lease) {
+        LEASES.remove(lease);
+    }
+
+    /**
+     * Closes every tracked connection at shutdown. The connections' notices are sent first, all at
+     * once, and get up to {@code noticeMillis} in total, so a client that stopped reading cannot
+     * hold up the rest. Returns how many connections there were.
+     */
+    static int closeAll(long noticeMillis) {
+        List<Lease> leases = new ArrayList<>();
+        for (Lease lease : LEASES) {
+            if (LEASES.remove(lease)) leases.add(lease);
+        }
+
+        List<Thread> notices = new ArrayList<>();
+        for (Lease lease : leases) {
+            Runnable notice = lease.notice;
+            if (notice != null) notices.add(Thread.ofVirtual().name("shutdown-notice").start(notice));
+        }
+        long deadline = System.nanoTime() + noticeMillis * 1_000_000;
+        try {
+            for (Thread notice : notices) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0 || !notice.join(Duration.ofNanos(left))) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Lease lease : leases) lease.close.run();
+        return leases.size();
+    }
+
+    /** Starts sweeping; a {@code limitMillis} or {@code intervalMillis} of 0 leaves the reaper off. */
+    static void start(long limitMillis, long intervalMillis) {
+        if (limitMillis <= 0 || intervalMillis <= 0) return;
+        long limit = limitMillis * 1_000_000;
+        Thread.ofPlatform().name("connection-reaper").daemon().start(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(intervalMillis);
+                    int reaped = sweep(System.nanoTime() - limit);
+                    if (reaped > 0) Log.info("reaped").put("connections", reaped).put("tracked", LEASES.size()).log();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+    }
+
+    private static int sweep(long staleBefore) {
+        int reaped = 0;
+        for (Lease lease : LEASES) {
+            if (lease.lastActive - staleBefore >= 0 || !LEASES.remove(lease)) continue;
+            try {
+                lease.close.run();
+            } catch (RuntimeException e) {
+                Log.warn("reap_failed").thrown(e).log();
+            }
+            REAPED.increment();
+            reaped++;
+        }
+        return reaped;
+    }
+}
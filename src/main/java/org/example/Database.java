@@ -1,169 +1,189 @@
 package org.example;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.*;
-import org.mindrot.jbcrypt.BCrypt;
+import java.util.concurrent.CompletableFuture;
 
 public class Database {
-    private static final String URL = "jdbc:mysql://localhost:3306/secure_bank";
-    private static final String USER = "root";
-    private static final String PASSWORD = "";
+    private static final AuthPool AUTH = new AuthPool(ServerConfig.AUTH_THREADS, ServerConfig.AUTH_QUEUE);
+
+    private static final BankStore STORE = openStore(ServerConfig.STORE);
+
+    // Time spent in the store per method, as seen by callers: includes pool waits and BCrypt.
+    private static final LatencyHistogram REGISTER_TIME = Metrics.timer("bank_db_seconds", "method", "registerUser");
+    private static final LatencyHistogram LOGIN_TIME = Metrics.timer("bank_db_seconds", "method", "loginUser");
+    private static final LatencyHistogram FIND_TIME = Metrics.timer("bank_db_seconds", "method", "findAccount");
+    private static final LatencyHistogram DEPOSIT_TIME = Metrics.timer("bank_db_seconds", "method", "deposit");
+    private static final LatencyHistogram WITHDRAW_TIME = Metrics.timer("bank_db_seconds", "method", "withdraw");
+    private static final LatencyHistogram BALANCE_TIME = Metrics.timer("bank_db_seconds", "method", "getBalance");
+    private static final LatencyHistogram HISTORY_TIME =
+            Metrics.timer("bank_db_seconds", "method", "getTransactionHistory");
+    private static final LatencyHistogram STREAM_TIME = Metrics.timer("bank_db_seconds", "method", "streamTransactions");
+
+    static {
+        Metrics.gauge("bank_auth_queued", AUTH::getQueued);
+        Metrics.gauge("bank_auth_running", AUTH::getRunning);
+        Metrics.gauge("bank_auth_rejected_total", AUTH::getRejected);
+        if (STORE instanceof JdbcBankStore jdbc) {
+            ConnectionPool pool = jdbc.pool();
+            Metrics.gauge("bank_db_pool_active", pool::getActive);
+            Metrics.gauge("bank_db_pool_idle", pool::getIdle);
+            Metrics.gauge("bank_db_pool_waiting", pool::getWaiting);
+            Metrics.gauge("bank_db_pool_timeouts_total", pool::getTimeouts);
+            Metrics.timer("bank_db_seconds", "method", "poolAcquire", pool.waitTimes());
+
+            TransactionJournal journal = jdbc.journal();
+            if (journal != null) {
+                Metrics.gauge("bank_journal_queued", journal::getQueued);
+                Metrics.gauge("bank_journal_batches_total", journal::getBatches);
+                Metrics.gauge("bank_journal_records_total", journal::getRecords);
+                Metrics.gauge("bank_journal_failed_batches_total", journal::getFailedBatches);
+                Metrics.gauge("bank_journal_batch_size_max", journal::getMaxBatchSize);
+                Metrics.timer("bank_db_seconds", "method", "journalCommit", journal.commitTimes());
+            }
+
+            BalanceCache balances = jdbc.balanceCache();
+            if (balances != null) {
+                Metrics.gauge("bank_balance_cache_entries", balances::size);
+                Metrics.gauge("bank_balance_cache_hits_total", balances::getHits);
+                Metrics.gauge("bank_balance_cache_misses_total", balances::getMisses);
+                Metrics.gauge("bank_balance_cache_evictions_total", balances::getEvictions);
+                Metrics.gauge("bank_balance_cache_discarded_loads_total", balances::getDiscardedLoads);
+            }
+        }
+    }
+
+    private static BankStore openStore(String kind) {
+        switch (kind) {
+            case "jdbc":
+                return JdbcBankStore.fromConfig(AUTH);
+            case "memory":
+                try {
+                    return new MemoryBankStore(Path.of(ServerConfig.MEMORY_DIR), ServerConfig.MEMORY_SEGMENT_BYTES,
+                            ServerConfig.MEMORY_FSYNC, ServerConfig.MEMORY_FSYNC_INTERVAL_MS,
+                            ServerConfig.MEMORY_SNAPSHOT_INTERVAL_MS, AUTH);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot open " + ServerConfig.MEMORY_DIR, e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown bank.store: " + kind);
+        }
+    }
 
-    public static boolean registerUser(String username, String password) {
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD)) {
-            conn.setAutoCommit(false);
+    public static BankStore store() {
+        return STORE;
+    }
 
-            if (userExists(conn, username)) return false;
+    /** The MySQL store, for tools that need it; fails if another store is configured. */
+    public static JdbcBankStore jdbc() {
+        if (STORE instanceof JdbcBankStore jdbc) return jdbc;
+        throw new IllegalStateException("bank.store is " + ServerConfig.STORE + ", not jdbc");
+    }
 
-            int userId = insertUser(conn, username, password);
-            if (userId == -1) return false;
+    public static ConnectionPool pool() {
+        return jdbc().pool();
+    }
 
-            String accountNumber = generateAccountNumber();
-            if (!createAccount(conn, userId, accountNumber)) return false;
+    static AuthPool authPool() {
+        return AUTH;
+    }
 
-            conn.commit();
-            return true;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+    public static boolean registerUser(String username, String password) throws AuthPool.BusyException {
+        long start = System.nanoTime();
+        try {
+            return STORE.registerUser(username, password);
+        } finally {
+            REGISTER_TIME.record(System.nanoTime() - start);
         }
     }
 
     public static Map<String, String> loginUser(String username, String enteredPassword) {
-        Map<String, String> result = new HashMap<>();
-        String sql = "SELECT u.password, a.account_number FROM users u JOIN accounts a ON u.user_id = a.user_id WHERE u.username = ?";
-
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, username);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                String storedHash = rs.getString("password");
-                String accountNumber = rs.getString("account_number");
-
-                if (BCrypt.checkpw(enteredPassword, storedHash)) {
-                    result.put("status", "SUCCESS");
-                    result.put("accountNumber", accountNumber);
-                } else {
-                    result.put("status", "FAILURE");
-                    result.put("message", "Invalid password");
-                }
-            } else {
-                result.put("status", "FAILURE");
-                result.put("message", "User not found");
-            }
-        } catch (SQLException e) {
-            result.put("status", "ERROR");
-            result.put("message", "Database error");
+        long start = System.nanoTime();
+        try {
+            return STORE.loginUser(username, enteredPassword);
+        } finally {
+            LOGIN_TIME.record(System.nanoTime() - start);
         }
-        return result;
     }
 
-    public static boolean deposit(String accountNumber, double amount) {
-        String sql = "UPDATE accounts SET balance = balance + ? WHERE account_number = ?";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setDouble(1, amount);
-            stmt.setString(2, accountNumber);
-            return stmt.executeUpdate() == 1 && recordTransaction(conn, accountNumber, "DEPOSIT", amount);
-        } catch (SQLException e) {
-            return false;
+    /** Looks up an account by number, or returns null if there is none. */
+    public static Account findAccount(String accountNumber) {
+        long start = System.nanoTime();
+        try {
+            return STORE.findAccount(accountNumber);
+        } finally {
+            FIND_TIME.record(System.nanoTime() - start);
         }
     }
 
-    public static boolean withdraw(String accountNumber, double amount) {
-        String checkBalance = "SELECT balance FROM accounts WHERE account_number = ?";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD)) {
-            PreparedStatement checkStmt = conn.prepareStatement(checkBalance);
-            checkStmt.setString(1, accountNumber);
-            ResultSet rs = checkStmt.executeQuery();
-
-            if (rs.next() && rs.getDouble("balance") >= amount) {
-                String update = "UPDATE accounts SET balance = balance - ? WHERE account_number = ?";
-                PreparedStatement updateStmt = conn.prepareStatement(update);
-                updateStmt.setDouble(1, amount);
-                updateStmt.setString(2, accountNumber);
-                return updateStmt.executeUpdate() == 1 && recordTransaction(conn, accountNumber, "WITHDRAW", amount);
-            }
-            return false;
-        } catch (SQLException e) {
-            return false;
-        }
+    public static boolean deposit(Account account, long amount) {
+        return depositAsync(account, amount).join();
     }
 
-    public static double getBalance(String accountNumber) {
-        String sql = "SELECT balance FROM accounts WHERE account_number = ?";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, accountNumber);
-            ResultSet rs = stmt.executeQuery();
-            return rs.next() ? rs.getDouble("balance") : -1;
-        } catch (SQLException e) {
-            return -1;
-        }
+    public static boolean withdraw(Account account, long amount) {
+        return withdrawAsync(account, amount).join();
     }
 
-    public static List<String> getTransactions(String accountNumber) {
-        List<String> transactions = new ArrayList<>();
-        String sql = "SELECT t.type, t.amount, t.timestamp FROM transactions t JOIN accounts a ON t.account_id = a.account_id WHERE a.account_number = ?";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, accountNumber);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                transactions.add(String.format("%s: %.2f at %s",
-                        rs.getString("type"),
-                        rs.getDouble("amount"),
-                        rs.getTimestamp("timestamp")));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return transactions;
+    /** See {@link BankStore#depositAsync}; the timer covers the time until the change is applied. */
+    public static CompletableFuture<Boolean> depositAsync(Account account, long amount) {
+        long start = System.nanoTime();
+        return timed(STORE.depositAsync(account, amount), DEPOSIT_TIME, start);
     }
 
-    private static boolean userExists(Connection conn, String username) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT username FROM users WHERE username = ?");
-        stmt.setString(1, username);
-        return stmt.executeQuery().next();
+    public static CompletableFuture<Boolean> withdrawAsync(Account account, long amount) {
+        long start = System.nanoTime();
+        return timed(STORE.withdrawAsync(account, amount), WITHDRAW_TIME, start);
     }
 
-    private static int insertUser(Connection conn, String username, String password) throws SQLException {
-        String sql = "INSERT INTO users (username, password) VALUES (?, ?)";
-        PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-        stmt.setString(1, username);
-        stmt.setString(2, BCrypt.hashpw(password, BCrypt.gensalt()));
-        stmt.executeUpdate();
-        ResultSet rs = stmt.getGeneratedKeys();
-        return rs.next() ? rs.getInt(1) : -1;
+    private static <T> CompletableFuture<T> timed(CompletableFuture<T> result, LatencyHistogram timer, long start) {
+        if (!result.isDone()) return result.whenComplete((value, e) -> timer.record(System.nanoTime() - start));
+        timer.record(System.nanoTime() - start);
+        return result;
     }
 
-    private static boolean createAccount(Connection conn, int userId, String accountNumber) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("INSERT INTO accounts (user_id, account_number) VALUES (?, ?)");
-        stmt.setInt(1, userId);
-        stmt.setString(2, accountNumber);
-        return stmt.executeUpdate() == 1;
+    public static long getBalance(Account account) {
+        long start = System.nanoTime();
+        try {
+            return STORE.getBalance(account);
+        } finally {
+            BALANCE_TIME.record(System.nanoTime() - start);
+        }
     }
 
-    private static String generateAccountNumber() {
-        return String.valueOf(100000 + new Random().nextInt(900000));
+    public static List<String> getTransactions(Account account) {
+        List<String> transactions = new ArrayList<>();
+        StringBuilder line = new StringBuilder(64);
+        for (TransactionRecord record : getTransactionHistory(account)) {
+            line.setLength(0);
+            line.append(record.type()).append(": ");
+            Money.appendTo(line, record.amount()).append(" at ").append(record.timestamp());
+            transactions.add(line.toString());
+        }
+        return transactions;
     }
 
-    private static boolean recordTransaction(Connection conn, String accountNumber, String type, double amount) throws SQLException {
-        String getAccountId = "SELECT account_id FROM accounts WHERE account_number = ?";
-        PreparedStatement stmt = conn.prepareStatement(getAccountId);
-        stmt.setString(1, accountNumber);
-        ResultSet rs = stmt.executeQuery();
-        if (!rs.next()) return false;
+    public static List<TransactionRecord> getTransactionHistory(Account account) {
+        long start = System.nanoTime();
+        try {
+            return STORE.getTransactionHistory(account);
+        } finally {
+            HISTORY_TIME.record(System.nanoTime() - start);
+        }
+    }
 
-        String insert = "INSERT INTO transactions (account_id, type, amount) VALUES (?, ?, ?)";
-        PreparedStatement insertStmt = conn.prepareStatement(insert);
-        insertStmt.setInt(1, rs.getInt("account_id"));
-        insertStmt.setString(2, type);
-        insertStmt.setDouble(3, amount);
-        return insertStmt.executeUpdate() == 1;
+    /** Streams one page of history; see {@link BankStore#streamTransactions}. */
+    public static HistoryQuery streamTransactions(Account account, HistoryQuery query, BankStore.TransactionVisitor visitor)
+            throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            return STORE.streamTransactions(account, query, visitor);
+        } finally {
+            STREAM_TIME.record(System.nanoTime() - start);
+        }
     }
 }
 
-//mysql-connector-j-9.3.0.jar
\ No newline at end of file
+//mysql-connector-j-9.3.0.jar
@@ -0,0 +1,56 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Graceful shutdown, run by a shutdown hook when the server gets SIGTERM or Ctrl-C. It stops
+ * accepting connections and refuses new commands with {@code BUSY: Server restarting, reconnect
+ * shortly}. It then gives the commands already running up to {@code bank.server.drainTimeoutMs}
+ * to finish. Next it shuts the store down, which writes out the journal batch or the ledger and a
+ * snapshot. Last it sends every remaining connection the same {@code BUSY} reply, a v2 client as
+ * an unsolicited {@code EXIT} response with status {@code BUSY}, and closes it, so clients
+ * reconnect to the next server. Each step's duration is logged as one {@code drained} record.
+ */
+final class Drain {
+    // How long the reconnect hints get, in total, before the connections are closed.
+    private static final long NOTICE_TIMEOUT_MS = 1_000;
+
+    private Drain() {
+    }
+
+    /** Drains through {@code listener}, the server's listening socket or channel, on shutdown. */
+    static void install(Closeable listener) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> run(listener), "drain"));
+    }
+
+    private static void run(Closeable listener) {
+        long start = System.nanoTime();
+        Admission.close();
+        try {
+            listener.close();
+        } catch (IOException ignored) {
+        }
+        long stopped = System.nanoTime();
+
+        boolean idle;
+        try {
+            idle = Admission.awaitIdle(stopped + ServerConfig.DRAIN_TIMEOUT_MS * 1_000_000);
+        } catch (InterruptedException e) {
+            idle = false;
+        }
+        int abandoned = Admission.inFlight();
+        long drained = System.nanoTime();
+
+        Database.store().shutdown();
+        long flushed = System.nanoTime();
+        int closed = ConnectionReaper.closeAll(NOTICE_TIMEOUT_MS);
+        long done = System.nanoTime();
+
+        Log.info("drained").put("stop_accepting_ms", (stopped - start) / 1_000_000)
+                .put("in_flight_ms", (drained - stopped) / 1_000_000).put("in_flight_abandoned", idle ? 0 : abandoned)
+                .put("store_flush_ms", (flushed - drained) / 1_000_000).put("connections_closed", closed)
+                .put("total_ms", (done - start) / 1_000_000).log();
+        Log.flush(1_000);
+    }
+}
@@ -0,0 +1,56 @@
+package org.example;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder for {@link Utf8Frames} frames arriving in arbitrary chunks. Frames that
+ * arrive whole are decoded straight out of the read buffer; only a frame split across reads is
+ * copied into a per-connection buffer, which is dropped again once the frame completes, so idle
+ * connections hold no buffer at all.
+ */
+final class FrameDecoder {
+    interface FrameHandler {
+        void frame(String payload);
+    }
+
+    private int highLengthByte = -1;
+    private int length = -1;
+    private ByteBuffer partial;
+
+    /**
+     * Consumes everything remaining in {@code in}, passing each completed frame to
+     * {@code handler} in order. {@code scratch} must hold {@link Utf8Frames#MAX_PAYLOAD} chars.
+     */
+    void decode(ByteBuffer in, char[] scratch, FrameHandler handler) throws UTFDataFormatException {
+        while (true) {
+            if (length < 0) {
+                if (highLengthByte < 0) {
+                    if (!in.hasRemaining()) return;
+                    highLengthByte = in.get() & 0xFF;
+                }
+                if (!in.hasRemaining()) return;
+                length = (highLengthByte << 8) | (in.get() & 0xFF);
+                highLengthByte = -1;
+            }
+
+            String payload;
+            if (partial == null && in.remaining() >= length) {
+                payload = Utf8Frames.decode(in, length, scratch);
+            } else {
+                if (!in.hasRemaining()) return;
+                if (partial == null) partial = ByteBuffer.allocate(length);
+                int n = Math.min(partial.remaining(), in.remaining());
+                partial.put(partial.position(), in, in.position(), n);
+                partial.position(partial.position() + n);
+                in.position(in.position() + n);
+                if (partial.hasRemaining()) return;
+                partial.flip();
+                payload = Utf8Frames.decode(partial, length, scratch);
+                partial = null;
+            }
+            length = -1;
+            handler.frame(payload);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.example;
+
+/**
+ * One page of transaction history: up to {@code pageSize} rows ordered by
+ * {@code (timestamp, transaction_id)}, starting after the keyset cursor
+ * {@code (afterMillis, afterId)}, optionally limited to {@code [fromMillis, toMillis)}. A negative
+ * {@code afterId} means "from the start", and a zero bound means "unbounded".
+ * <p>
+ * Cursors travel in the legacy protocol as {@code millis_id}, e.g. {@code 1745921952000_42}.
+ */
+public record HistoryQuery(int pageSize, long afterMillis, long afterId, long fromMillis, long toMillis) {
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    public HistoryQuery {
+        pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+    }
+
+    public static HistoryQuery firstPage(int pageSize, long fromMillis, long toMillis) {
+        return new HistoryQuery(pageSize, 0, -1, fromMillis, toMillis);
+    }
+
+    public boolean hasCursor() {
+        return afterId >= 0;
+    }
+
+    /** The query for the page after the row {@code (millis, id)}. */
+    public HistoryQuery after(long millis, long id) {
+        return new HistoryQuery(pageSize, millis, id, fromMillis, toMillis);
+    }
+
+    public String cursor() {
+        return hasCursor() ? afterMillis + "_" + afterId : "";
+    }
+
+    /** Parses a {@code millis_id} cursor; an empty string means no cursor. */
+    public HistoryQuery withCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) return this;
+        int sep = cursor.indexOf('_');
+        if (sep < 0) throw new IllegalArgumentException("bad cursor: " + cursor);
+        return after(Long.parseLong(cursor.substring(0, sep)), Long.parseLong(cursor.substring(sep + 1)));
+    }
+}
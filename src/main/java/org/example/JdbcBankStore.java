@@ -0,0 +1,424 @@
+package org.example;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * The MySQL store: users, accounts and transactions in the {@code secure_bank} schema, reached
+ * through a {@link ConnectionPool}. Deposits and withdrawals optionally go through the
+ * group-commit {@link TransactionJournal}, and balances through the {@link BalanceCache}.
+ * <p>
+ * Amounts cross JDBC as {@code BIGINT} minor units. The SQL scales them to and from the
+ * {@code DECIMAL(15,2)} columns ({@code ? / 100}, {@code CAST(x * 100 AS SIGNED)}), which MySQL
+ * does exactly, so no {@code double} or {@code BigDecimal} is involved.
+ */
+public class JdbcBankStore implements BankStore {
+    private final ConnectionPool pool;
+    // Set when deposits and withdrawals go through group commit instead of one transaction each.
+    private final TransactionJournal journal;
+    // Set unless bank.balanceCache.size is 0.
+    private final BalanceCache balances;
+    private final AuthPool auth;
+
+    JdbcBankStore(ConnectionPool pool, TransactionJournal journal, BalanceCache balances, AuthPool auth) {
+        this.pool = pool;
+        this.journal = journal;
+        this.balances = balances;
+        this.auth = auth;
+    }
+
+    /** Builds the store from the {@code bank.db.*}, {@code bank.journal.*} and {@code bank.balanceCache.*} settings. */
+    static JdbcBankStore fromConfig(AuthPool auth) {
+        ConnectionPool pool = new ConnectionPool(
+                ServerConfig.DB_URL, ServerConfig.DB_USER, ServerConfig.DB_PASSWORD,
+                ServerConfig.DB_POOL_MAX_SIZE, ServerConfig.DB_POOL_MIN_IDLE,
+                ServerConfig.DB_POOL_ACQUIRE_TIMEOUT_MS, ServerConfig.DB_POOL_IDLE_TIMEOUT_MS,
+                ServerConfig.DB_POOL_VALIDATION_INTERVAL_MS, ServerConfig.DB_POOL_HOUSEKEEPING_INTERVAL_MS);
+        TransactionJournal journal = ServerConfig.JOURNAL_ENABLED
+                ? new TransactionJournal(pool, ServerConfig.JOURNAL_BATCH_SIZE, ServerConfig.JOURNAL_LINGER_MS)
+                : null;
+        BalanceCache balances = ServerConfig.BALANCE_CACHE_SIZE > 0
+                ? new BalanceCache(ServerConfig.BALANCE_CACHE_SIZE)
+                : null;
+        return new JdbcBankStore(pool, journal, balances, auth);
+    }
+
+    public ConnectionPool pool() {
+        return pool;
+    }
+
+    TransactionJournal journal() {
+        return journal;
+    }
+
+    BalanceCache balanceCache() {
+        return balances;
+    }
+
+    @Override
+    public boolean registerUser(String username, String password) throws AuthPool.BusyException {
+        // Hash before taking a connection, so no connection is held while BCrypt runs.
+        String hash = auth.hash(password);
+
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+
+            if (userExists(conn, username)) return false;
+
+            int userId = insertUser(conn, username, hash);
+            if (userId == -1) return false;
+
+            String accountNumber = generateAccountNumber();
+            if (!createAccount(conn, userId, accountNumber)) return false;
+
+            conn.commit();
+            return true;
+        } catch (SQLException e) {
+            failed("registerUser", e);
+            return false;
+        }
+    }
+
+    @Override
+    public Map<String, String> loginUser(String username, String enteredPassword) {
+        Map<String, String> result = new HashMap<>();
+        String sql = "SELECT u.password, a.account_id, a.account_number FROM users u JOIN accounts a ON u.user_id = a.user_id WHERE u.username = ?";
+
+        String storedHash;
+        int accountId;
+        String accountNumber;
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    storedHash = rs.getString("password");
+                    accountId = rs.getInt("account_id");
+                    accountNumber = rs.getString("account_number");
+                } else {
+                    storedHash = null;
+                    accountId = -1;
+                    accountNumber = null;
+                }
+            }
+        } catch (SQLException e) {
+            failed("loginUser", e);
+            result.put("status", "ERROR");
+            result.put("message", "Database error");
+            return result;
+        }
+
+        // The connection is back in the pool before the slow part starts.
+        try {
+            if (storedHash != null) {
+
+                if (auth.verify(enteredPassword, storedHash)) {
+                    result.put("status", "SUCCESS");
+                    result.put("accountId", String.valueOf(accountId));
+                    result.put("accountNumber", accountNumber);
+                } else {
+                    result.put("status", "FAILURE");
+                    result.put("message", "Invalid password");
+                }
+            } else {
+                result.put("status", "FAILURE");
+                result.put("message", "User not found");
+            }
+        } catch (AuthPool.BusyException e) {
+            result.put("status", "BUSY");
+            result.put("message", e.getMessage());
+        }
+        return result;
+    }
+
+    @Override
+    public Account findAccount(String accountNumber) {
+        String sql = "SELECT account_id FROM accounts WHERE account_number = ?";
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, accountNumber);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new Account(rs.getInt("account_id"), accountNumber) : null;
+            }
+        } catch (SQLException e) {
+            failed("findAccount", e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean deposit(Account account, long amount) {
+        return depositAsync(account, amount).join();
+    }
+
+    @Override
+    public boolean withdraw(Account account, long amount) {
+        return withdrawAsync(account, amount).join();
+    }
+
+    /** With the journal on, returns as soon as the change is queued for group commit. */
+    @Override
+    public CompletableFuture<Boolean> depositAsync(Account account, long amount) {
+        if (amount <= 0) return CompletableFuture.completedFuture(false);
+        String sql = "UPDATE accounts SET balance = balance + ? / 100 WHERE account_id = ?";
+        return updateCached(account, amount, () -> journal != null
+                ? journal.submit(account, "DEPOSIT", amount)
+                : CompletableFuture.completedFuture(applyTransaction(sql, false, account, "DEPOSIT", amount)));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> withdrawAsync(Account account, long amount) {
+        if (amount <= 0) return CompletableFuture.completedFuture(false);
+        // The balance check is part of the update, so concurrent withdrawals can't both pass it.
+        String sql = "UPDATE accounts SET balance = balance - ? / 100 WHERE account_id = ? AND balance >= ? / 100";
+        return updateCached(account, -amount, () -> journal != null
+                ? journal.submit(account, "WITHDRAW", amount)
+                : CompletableFuture.completedFuture(applyTransaction(sql, true, account, "WITHDRAW", amount)));
+    }
+
+    /**
+     * Starts a balance change and applies {@code delta} to the cached balance once it has
+     * committed. The returned future completes after the cache is updated.
+     */
+    private CompletableFuture<Boolean> updateCached(Account account, long delta,
+                                                    Supplier<CompletableFuture<Boolean>> change) {
+        if (balances == null) return change.get();
+        balances.beginWrite(account.id());
+        CompletableFuture<Boolean> applied;
+        try {
+            applied = change.get();
+        } catch (RuntimeException e) {
+            balances.endWrite(account.id(), 0);
+            throw e;
+        }
+        return applied.whenComplete((ok, e) -> balances.endWrite(account.id(), Boolean.TRUE.equals(ok) ? delta : 0));
+    }
+
+    /**
+     * Runs a single-row balance update and its journal insert in one transaction. The update
+     * binds amount and account id, plus the amount again as the minimum balance when
+     * {@code checksFunds} is set.
+     */
+    private boolean applyTransaction(String update, boolean checksFunds, Account account,
+                                            String type, long amount) {
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(update)) {
+                stmt.setLong(1, amount);
+                stmt.setInt(2, account.id());
+                if (checksFunds) stmt.setLong(3, amount);
+                if (stmt.executeUpdate() != 1 || !recordTransaction(conn, account, type, amount)) {
+                    conn.rollback();
+                    return false;
+                }
+            }
+            conn.commit();
+            return true;
+        } catch (SQLException e) {
+            failed(type, e);
+            return false;
+        }
+    }
+
+    @Override
+    public long getBalance(Account account) {
+        if (balances == null) return loadBalance(account);
+        long cached = balances.get(account.id());
+        if (cached != BalanceCache.MISS) return cached;
+        long ticket = balances.loadTicket(account.id());
+        long balance = loadBalance(account);
+        if (balance >= 0) balances.load(account.id(), ticket, balance);
+        return balance;
+    }
+
+    /** Reads the balance from the database, bypassing the cache. */
+    long loadBalance(Account account) {
+        String sql = "SELECT CAST(balance * 100 AS SIGNED) FROM accounts WHERE account_id = ?";
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, account.id());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        } catch (SQLException e) {
+            failed("loadBalance", e);
+            return -1;
+        }
+    }
+
+    @Override
+    public List<TransactionRecord> getTransactionHistory(Account account) {
+        List<TransactionRecord> transactions = new ArrayList<>();
+        // Served entirely from idx_transactions_account_time, already in order.
+        String sql = "SELECT type, CAST(amount * 100 AS SIGNED), timestamp FROM transactions WHERE account_id = ?"
+                + " ORDER BY timestamp, transaction_id";
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, account.id());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    transactions.add(new TransactionRecord(
+                            rs.getString(1),
+                            rs.getLong(2),
+                            rs.getTimestamp(3)));
+                }
+            }
+        } catch (SQLException e) {
+            failed("getTransactionHistory", e);
+        }
+        return transactions;
+    }
+
+    /**
+     * Reads one page of history, at most {@link HistoryQuery#MAX_PAGE_SIZE} rows, and hands it to
+     * {@code visitor} once the connection is back in the pool. A client that reads its replies
+     * slowly therefore never holds a database connection. Returns the query for the next page, or
+     * null if this was the last.
+     */
+    @Override
+    public HistoryQuery streamTransactions(Account account, HistoryQuery query, TransactionVisitor visitor)
+            throws SQLException, IOException {
+        StringBuilder sql = new StringBuilder(
+                "SELECT transaction_id, type, CAST(amount * 100 AS SIGNED), timestamp FROM transactions WHERE account_id = ?");
+        if (query.hasCursor()) sql.append(" AND (timestamp > ? OR (timestamp = ? AND transaction_id > ?))");
+        if (query.fromMillis() > 0) sql.append(" AND timestamp >= ?");
+        if (query.toMillis() > 0) sql.append(" AND timestamp < ?");
+        // One extra row tells us whether there is a next page.
+        sql.append(" ORDER BY timestamp, transaction_id LIMIT ?");
+
+        int rows = 0;
+        long[] ids = new long[query.pageSize()];
+        long[] millis = new long[query.pageSize()];
+        long[] amounts = new long[query.pageSize()];
+        String[] types = new String[query.pageSize()];
+        boolean more = false;
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int p = 1;
+            stmt.setInt(p++, account.id());
+            if (query.hasCursor()) {
+                Timestamp after = new Timestamp(query.afterMillis());
+                stmt.setTimestamp(p++, after);
+                stmt.setTimestamp(p++, after);
+                stmt.setLong(p++, query.afterId());
+            }
+            if (query.fromMillis() > 0) stmt.setTimestamp(p++, new Timestamp(query.fromMillis()));
+            if (query.toMillis() > 0) stmt.setTimestamp(p++, new Timestamp(query.toMillis()));
+            stmt.setInt(p, query.pageSize() + 1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (rows == query.pageSize()) {
+                        more = true;
+                        break;
+                    }
+                    ids[rows] = rs.getLong(1);
+                    types[rows] = rs.getString(2);
+                    amounts[rows] = rs.getLong(3);
+                    millis[rows] = rs.getTimestamp(4).getTime();
+                    rows++;
+                }
+            }
+        }
+
+        for (int i = 0; i < rows; i++) {
+            visitor.row(ids[i], types[i], amounts[i], new Timestamp(millis[i]));
+        }
+        return more ? query.after(millis[rows - 1], ids[rows - 1]) : null;
+    }
+
+    private boolean userExists(Connection conn, String username) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT username FROM users WHERE username = ?")) {
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private int insertUser(Connection conn, String username, String passwordHash) throws SQLException {
+        String sql = "INSERT INTO users (username, password) VALUES (?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, username);
+            stmt.setString(2, passwordHash);
+            stmt.executeUpdate();
+            try (ResultSet rs = stmt.getGeneratedKeys()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    private boolean createAccount(Connection conn, int userId, String accountNumber) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO accounts (user_id, account_number) VALUES (?, ?)")) {
+            stmt.setInt(1, userId);
+            stmt.setString(2, accountNumber);
+            return stmt.executeUpdate() == 1;
+        }
+    }
+
+    private static void failed(String operation, SQLException e) {
+        Metrics.error("sql");
+        Log.error("sql_error").put("op", operation).thrown(e).log();
+    }
+
+    private String generateAccountNumber() {
+        return String.valueOf(100000 + new Random().nextInt(900000));
+    }
+
+    private boolean recordTransaction(Connection conn, Account account, String type, long amount) throws SQLException {
+        String insert = "INSERT INTO transactions (account_id, type, amount) VALUES (?, ?, ? / 100)";
+        try (PreparedStatement insertStmt = conn.prepareStatement(insert)) {
+            insertStmt.setInt(1, account.id());
+            insertStmt.setString(2, type);
+            insertStmt.setLong(3, amount);
+            return insertStmt.executeUpdate() == 1;
+        }
+    }
+
+    /** Opens {@code bank.warmup.connections} connections and loads the most recently used balances. */
+    @Override
+    public void warmUp() {
+        int opened = pool.warmUp(ServerConfig.WARMUP_CONNECTIONS);
+        int primed = balances == null ? 0 : primeBalances(Math.min(ServerConfig.WARMUP_BALANCES, ServerConfig.BALANCE_CACHE_SIZE));
+        Log.info("store_warmed").put("connections", opened).put("balances", primed).log();
+    }
+
+    // Caches the balances of the accounts with the latest transactions. Served by
+    // idx_transactions_account_time, one index dive per account.
+    private int primeBalances(int limit) {
+        if (limit <= 0) return 0;
+        String sql = "SELECT a.account_id, CAST(a.balance * 100 AS SIGNED) FROM accounts a"
+                + " JOIN (SELECT account_id, MAX(timestamp) AS latest FROM transactions GROUP BY account_id"
+                + " ORDER BY latest DESC LIMIT ?) recent ON recent.account_id = a.account_id";
+        int primed = 0;
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int accountId = rs.getInt(1);
+                    balances.load(accountId, balances.loadTicket(accountId), rs.getLong(2));
+                    primed++;
+                }
+            }
+        } catch (SQLException e) {
+            failed("primeBalances", e);
+        }
+        return primed;
+    }
+
+    @Override
+    public void shutdown() {
+        if (journal != null) {
+            try {
+                journal.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,112 @@
+package org.example;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks on N single-threaded shards, picking the shard from the task's key. Tasks with the
+ * same key always land on the same thread, so they run one at a time and in submission order
+ * with no per-key locks. Tasks with different keys spread over the shards and run in parallel.
+ * Keys are account ids: every command that touches an account is ordered behind the ones
+ * submitted before it, whichever connection sent them.
+ * <p>
+ * A slow task holds up the other keys on its shard, so tasks should only do the account's own
+ * work. A task that calls {@link #call} for a key on its own shard runs it inline.
+ */
+class KeyedExecutor {
+    private static final class Shard {
+        final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+        final LongAdder executed = new LongAdder();
+        Thread thread;
+    }
+
+    private final Shard[] shards;
+
+    KeyedExecutor(int threads, String name) {
+        shards = new Shard[Math.max(1, threads)];
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = new Shard();
+            shards[i] = shard;
+            shard.thread = Thread.ofPlatform().name(name + "-" + i).daemon().start(() -> {
+                while (true) {
+                    Runnable task;
+                    try {
+                        task = shard.queue.take();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    run(task);
+                    shard.executed.increment();
+                }
+            });
+        }
+    }
+
+    void execute(int key, Runnable task) {
+        shards[shard(key)].queue.add(task);
+    }
+
+    /** Runs {@code task} on the key's shard and waits for its result. */
+    <T> T call(int key, Supplier<T> task) {
+        Shard shard = shards[shard(key)];
+        if (Thread.currentThread() == shard.thread) return task.get();
+        FutureTask<T> future = new FutureTask<>(task::get);
+        shard.queue.add(future);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for shard " + shard.thread.getName(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            if (e.getCause() instanceof Error error) throw error;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    int getShards() {
+        return shards.length;
+    }
+
+    /** Tasks waiting on the busiest shard. */
+    int getMaxQueued() {
+        int max = 0;
+        for (Shard shard : shards) max = Math.max(max, shard.queue.size());
+        return max;
+    }
+
+    long[] getExecutedPerShard() {
+        long[] executed = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) executed[i] = shards[i].executed.sum();
+        return executed;
+    }
+
+    @Override
+    public String toString() {
+        long total = 0;
+        long busiest = 0;
+        for (long n : getExecutedPerShard()) {
+            total += n;
+            busiest = Math.max(busiest, n);
+        }
+        return String.format("shards=%d executed=%d busiestShare=%.1f%% maxQueued=%d", shards.length, total,
+                total == 0 ? 0 : 100.0 * busiest / total, getMaxQueued());
+    }
+
+    private int shard(int key) {
+        int h = key * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Metrics.error("task");
+            Log.error("task_failed").thrown(e).log();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package org.example;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator for the legacy protocol:
+ * <pre>
+ *   java -cp ... org.example.LoadGenerator [host] [port] [connections] [rate] [seconds] [mix] [users]
+ * </pre>
+ * Setup registers {@code users} accounts (100 by default), or logs in to them if they already
+ * exist from an earlier run. It then opens {@code connections} connections (1000 by default), each
+ * resuming one of those users with its token, so setup does not pay for a BCrypt check per
+ * connection. None of this is measured.
+ * <p>
+ * For {@code seconds} it then sends commands picked at random from {@code mix}, a list of weighted
+ * commands such as {@code BALANCE=50,DEPOSIT=20,WITHDRAW=10,TRANSACTIONS=10,LOGIN=5,REGISTER=5} (the
+ * default). With {@code rate} 0 every connection sends its next command as soon as the last reply
+ * arrives (closed loop). Otherwise commands are scheduled at {@code rate} per second in total,
+ * whether or not the server keeps up (open loop), and handed to whichever connection is free.
+ * Latency is then measured from the scheduled time, so queueing behind a slow server counts.
+ * <p>
+ * The report shows per-command throughput, error and {@code BUSY} replies, and latency
+ * percentiles. Throughput counts every reply, so check the {@code busy} column: the server's
+ * default rate limits refuse most of a fast run unless they are turned off. On Linux, raise {@code ulimit -n} above {@code connections} on both sides first.
+ */
+public class LoadGenerator {
+    private static final String DEFAULT_MIX = "BALANCE=50,DEPOSIT=20,WITHDRAW=10,TRANSACTIONS=10,LOGIN=5,REGISTER=5";
+    private static final String PASSWORD = "loadgen";
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int REPLY_TIMEOUT_MS = 30_000;
+    private static final int SETUP_CONCURRENCY = 64;
+
+    private final String host;
+    private final int port;
+    private final String[] commands;
+    private final int[] cumulativeWeights;
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicInteger registrations = new AtomicInteger();
+    private final LongAdder connectionErrors = new LongAdder();
+
+    private static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder busy = new LongAdder();
+    }
+
+    private record User(String name, String token) {
+    }
+
+    LoadGenerator(String host, int port, String mix) {
+        this.host = host;
+        this.port = port;
+        String[] entries = mix.split(",");
+        commands = new String[entries.length];
+        cumulativeWeights = new int[entries.length];
+        int sum = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].split("=");
+            commands[i] = entry[0].trim().toUpperCase();
+            sum += entry.length > 1 ? Integer.parseInt(entry[1].trim()) : 1;
+            cumulativeWeights[i] = sum;
+            stats.put(commands[i], new Stats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        int rate = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+        String mix = args.length > 5 ? args[5] : DEFAULT_MIX;
+        int users = args.length > 6 ? Integer.parseInt(args[6]) : 100;
+
+        LoadGenerator generator = new LoadGenerator(host, port, mix);
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            long start = System.nanoTime();
+            List<User> accounts = generator.setUpUsers(clients, users);
+            List<Connection> open = generator.connect(clients, accounts, connections);
+            System.out.printf("Setup: %d users, %d of %d connections in %d ms%n", accounts.size(), open.size(),
+                    connections, (System.nanoTime() - start) / 1_000_000);
+            if (open.isEmpty()) return;
+
+            long backlog = generator.run(clients, open, rate, seconds);
+            generator.report(seconds, rate, backlog);
+            for (Connection connection : open) connection.close();
+        }
+    }
+
+    /** Registers (or logs in to) the load-test users and returns a resume token for each. */
+    private List<User> setUpUsers(ExecutorService clients, int users) throws InterruptedException {
+        Semaphore permits = new Semaphore(SETUP_CONCURRENCY);
+        List<Future<User>> pending = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            String name = "loadgen" + i;
+            pending.add(clients.submit(() -> {
+                permits.acquire();
+                try (Connection connection = open()) {
+                    connection.call("REGISTER:" + name + ":" + PASSWORD);
+                    if (!connection.call("LOGIN:" + name + ":" + PASSWORD).startsWith("SUCCESS")) return null;
+                    // Closing without EXIT keeps the token valid for the connections that resume it.
+                    String reply = connection.call("TOKEN");
+                    return reply.startsWith("TOKEN:") ? new User(name, reply.substring("TOKEN:".length())) : null;
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+        List<User> ready = new ArrayList<>(users);
+        for (Future<User> user : pending) {
+            User result = join(user);
+            if (result != null) ready.add(result);
+        }
+        return ready;
+    }
+
+    private List<Connection> connect(ExecutorService clients, List<User> users, int connections)
+            throws InterruptedException {
+        if (users.isEmpty()) return List.of();
+        Semaphore permits = new Semaphore(SETUP_CONCURRENCY * 4);
+        List<Future<Connection>> pending = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            User user = users.get(i % users.size());
+            pending.add(clients.submit(() -> {
+                permits.acquire();
+                try {
+                    Connection connection = open();
+                    try {
+                        if (connection.call("RESUME:" + user.token()).startsWith("SUCCESS")) {
+                            connection.user = user;
+                            return connection;
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                        throw e;
+                    }
+                    connection.close();
+                    return null;
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+        List<Connection> open = new ArrayList<>(connections);
+        for (Future<Connection> connection : pending) {
+            Connection result = join(connection);
+            if (result != null) open.add(result);
+        }
+        return open;
+    }
+
+    private static <T> T join(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException interrupted) throw interrupted;
+            return null;
+        }
+    }
+
+    /**
+     * Runs the measured phase. Returns how many scheduled commands were never sent because every
+     * connection was still busy at the end, which is 0 in closed-loop mode.
+     */
+    private long run(ExecutorService clients, List<Connection> connections, int rate, int seconds)
+            throws Exception {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        // Open loop: scheduled send times, taken by whichever connection is free.
+        LinkedBlockingQueue<Long> schedule = rate > 0 ? new LinkedBlockingQueue<>() : null;
+
+        List<Future<?>> workers = new ArrayList<>(connections.size());
+        for (Connection connection : connections) {
+            workers.add(clients.submit(() -> {
+                drive(connection, schedule, deadline);
+                return null;
+            }));
+        }
+        if (schedule != null) {
+            double interval = 1_000_000_000.0 / rate;
+            long sent = 0;
+            for (long now = System.nanoTime(); now < deadline; now = System.nanoTime()) {
+                long due = (long) ((now - start) / interval) + 1;
+                for (; sent < due; sent++) schedule.add(start + (long) (sent * interval));
+                LockSupport.parkNanos(Math.min(deadline, start + (long) (sent * interval)) - System.nanoTime());
+            }
+        }
+        for (Future<?> worker : workers) worker.get();
+        return schedule == null ? 0 : schedule.size();
+    }
+
+    private void drive(Connection connection, LinkedBlockingQueue<Long> schedule, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            while (true) {
+                long intended;
+                if (schedule == null) {
+                    intended = System.nanoTime();
+                    if (intended >= deadline) return;
+                } else {
+                    Long next = schedule.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) return;
+                    intended = next;
+                }
+                String command = pick(random);
+                String reply = connection.call(request(command, connection.user, random));
+                long latency = System.nanoTime() - intended;
+                Stats stat = stats.get(command);
+                stat.latency.record(latency);
+                if (reply.startsWith("ERROR")) stat.errors.increment();
+                if (reply.startsWith("BUSY")) stat.busy.increment();
+            }
+        } catch (IOException e) {
+            connectionErrors.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String pick(ThreadLocalRandom random) {
+        int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (r >= cumulativeWeights[i]) i++;
+        return commands[i];
+    }
+
+    private String request(String command, User user, ThreadLocalRandom random) {
+        switch (command) {
+            case "DEPOSIT":
+                return "DEPOSIT:" + Money.format(random.nextLong(100, 10_001));
+            case "WITHDRAW":
+                return "WITHDRAW:" + Money.format(random.nextLong(1, 1_001));
+            case "LOGIN":
+                return "LOGIN:" + user.name() + ":" + PASSWORD;
+            case "REGISTER":
+                return "REGISTER:loadgen-" + runId + "-" + registrations.incrementAndGet() + ":" + PASSWORD;
+            default:
+                return command;
+        }
+    }
+
+    private void report(int seconds, int rate, long backlog) {
+        System.out.printf("%-13s %9s %9s %7s %7s %9s %9s %9s %9s %9s%n", "command", "count", "ops/s", "errors",
+                "busy", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        LatencyHistogram all = new LatencyHistogram();
+        long errors = 0;
+        long busy = 0;
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats stat = entry.getValue();
+            all.add(stat.latency);
+            errors += stat.errors.sum();
+            busy += stat.busy.sum();
+            print(entry.getKey(), stat.latency, stat.errors.sum(), stat.busy.sum(), seconds);
+        }
+        print("total", all, errors, busy, seconds);
+        if (rate > 0) {
+            System.out.printf("Target rate %d/s; %d scheduled commands were still waiting at the end%n", rate, backlog);
+        }
+        if (connectionErrors.sum() > 0) System.out.printf("Connections lost: %d%n", connectionErrors.sum());
+        if (busy > 0) {
+            System.out.printf("%d commands were refused with BUSY; the ops/s above include them. Start the server"
+                    + " with -Dbank.limit.connectionRate=0 -Dbank.limit.accountRate=0 to measure it unthrottled%n", busy);
+        }
+    }
+
+    private static void print(String name, LatencyHistogram latency, long errors, long busy, int seconds) {
+        System.out.printf("%-13s %9d %9.0f %7d %7d %9.3f %9.3f %9.3f %9.3f %9.3f%n", name, latency.count(),
+                latency.count() / (double) seconds, errors, busy, latency.valueAt(50) / 1e6, latency.valueAt(90) / 1e6,
+                latency.valueAt(99) / 1e6, latency.valueAt(99.9) / 1e6, latency.max() / 1e6);
+    }
+
+    private Connection open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(REPLY_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /** One client connection; every command the generator sends gets exactly one reply frame. */
+    private static final class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        User user;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(socket.getInputStream());
+            out = new DataOutputStream(socket.getOutputStream());
+        }
+
+        String call(String command) throws IOException {
+            out.writeUTF(command);
+            return in.readUTF();
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
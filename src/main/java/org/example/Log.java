@@ -0,0 +1,269 @@
+package org.example;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured, asynchronous logging to standard output. A record is an event name plus up to
+ * {@link #MAX_FIELDS} key/value fields, written as one logfmt line:
+ * <pre>
+ *   ts=2026-03-14T09:26:53.120Z level=INFO event=command session=12 account=7 cmd=DEPOSIT latency_us=85
+ * </pre>
+ * Callers fill a preallocated slot of a ring buffer, {@code Log.info("command").put("session", id)...log()},
+ * and a single background thread formats and writes the lines with one reused builder and byte
+ * buffer. Callers never block on the console and never allocate for numeric fields. When the ring
+ * is full the record is dropped and counted in {@link #dropped()}. Events below
+ * {@code bank.log.level} return a shared no-op record, so a disabled call costs a comparison
+ * against a constant.
+ * <p>
+ * Every record started must end with {@link Record#log()}, even on error paths, or the writer
+ * stalls on its slot.
+ */
+final class Log {
+    static final int DEBUG = 0;
+    static final int INFO = 1;
+    static final int WARN = 2;
+    static final int ERROR = 3;
+    static final int MAX_FIELDS = 8;
+
+    private static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+    private static final int LEVEL = level(ServerConfig.LOG_LEVEL);
+    private static final Record DISCARD = new Record();
+
+    private static final Record[] RING = new Record[Integer.highestOneBit(Math.max(2, ServerConfig.LOG_BUFFER_SIZE - 1)) << 1];
+    private static final int MASK = RING.length - 1;
+    private static final AtomicLong CLAIMED = new AtomicLong();
+    private static final LongAdder DROPPED = new LongAdder();
+    // Written only by the writer thread: the first sequence whose slot it has not released, and
+    // the first sequence not yet written out.
+    private static volatile long consumed;
+    private static volatile long written;
+
+    // Owned by the writer thread.
+    private static final StringBuilder LINE = new StringBuilder(1024);
+    private static final ByteBuffer BYTES = ByteBuffer.allocate(64 * 1024);
+    private static final CharsetEncoder UTF8 = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private static final DateTimeFormatter SECONDS =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.").withZone(ZoneOffset.UTC);
+    private static long cachedSecond = -1;
+    private static String cachedPrefix;
+
+    static {
+        for (int i = 0; i < RING.length; i++) RING[i] = new Record();
+        Thread.ofPlatform().name("log-writer").daemon().start(Log::writeLoop);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1_000)));
+    }
+
+    /** One log record, owned by its caller between {@code debug()}..{@code error()} and {@link #log()}. */
+    static final class Record {
+        volatile long published = -1;
+        long sequence;
+        long millis;
+        int level;
+        String event;
+        int fields;
+        final String[] keys = new String[MAX_FIELDS];
+        final long[] numbers = new long[MAX_FIELDS];
+        final Object[] texts = new Object[MAX_FIELDS];
+        Throwable thrown;
+
+        Record put(String key, long value) {
+            if (this == DISCARD || fields == MAX_FIELDS) return this;
+            keys[fields] = key;
+            numbers[fields] = value;
+            texts[fields++] = null;
+            return this;
+        }
+
+        /** Adds a text field; {@code value}'s {@code toString()} runs on the writer thread. */
+        Record put(String key, Object value) {
+            if (this == DISCARD || fields == MAX_FIELDS) return this;
+            keys[fields] = key;
+            texts[fields++] = value == null ? "null" : value;
+            return this;
+        }
+
+        Record thrown(Throwable t) {
+            if (this != DISCARD) thrown = t;
+            return this;
+        }
+
+        void log() {
+            if (this != DISCARD) published = sequence;
+        }
+    }
+
+    private Log() {
+    }
+
+    static boolean isEnabled(int level) {
+        return level >= LEVEL;
+    }
+
+    static Record debug(String event) {
+        return start(DEBUG, event);
+    }
+
+    static Record info(String event) {
+        return start(INFO, event);
+    }
+
+    static Record warn(String event) {
+        return start(WARN, event);
+    }
+
+    static Record error(String event) {
+        return start(ERROR, event);
+    }
+
+    /** Records lost because the ring was full. */
+    static long dropped() {
+        return DROPPED.sum();
+    }
+
+    /** Waits up to {@code timeoutMillis} for everything logged so far to be written. */
+    static void flush(long timeoutMillis) {
+        long target = CLAIMED.get();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        while (written < target && System.nanoTime() < deadline) LockSupport.parkNanos(1_000_000);
+    }
+
+    private static Record start(int level, String event) {
+        if (level < LEVEL) return DISCARD;
+        long sequence;
+        do {
+            sequence = CLAIMED.get();
+            if (sequence - consumed >= RING.length) {
+                DROPPED.increment();
+                return DISCARD;
+            }
+        } while (!CLAIMED.compareAndSet(sequence, sequence + 1));
+        Record record = RING[(int) sequence & MASK];
+        record.sequence = sequence;
+        record.millis = System.currentTimeMillis();
+        record.level = level;
+        record.event = event;
+        record.fields = 0;
+        record.thrown = null;
+        return record;
+    }
+
+    private static int level(String name) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equalsIgnoreCase(name)) return i;
+        }
+        return INFO;
+    }
+
+    // Formats records into one reused buffer and writes it out whenever it fills or the ring is empty.
+    private static void writeLoop() {
+        FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+        long next = 0;
+        while (true) {
+            Record record = RING[(int) next & MASK];
+            if (record.published != next) {
+                if (written != next) {
+                    drain(out);
+                    written = next;
+                }
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+            format(record);
+            for (int i = 0; i < record.fields; i++) record.texts[i] = null;
+            record.thrown = null;
+            consumed = ++next;
+            encode(out);
+        }
+    }
+
+    private static void format(Record record) {
+        LINE.setLength(0);
+        long second = Math.floorDiv(record.millis, 1000);
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedPrefix = SECONDS.format(Instant.ofEpochSecond(second));
+        }
+        int ms = Math.floorMod(record.millis, 1000);
+        LINE.append("ts=").append(cachedPrefix).append((char) ('0' + ms / 100)).append((char) ('0' + ms / 10 % 10))
+                .append((char) ('0' + ms % 10)).append('Z');
+        LINE.append(" level=").append(LEVEL_NAMES[record.level]).append(" event=").append(record.event);
+        for (int i = 0; i < record.fields; i++) {
+            LINE.append(' ').append(record.keys[i]).append('=');
+            Object text = record.texts[i];
+            if (text == null) {
+                LINE.append(record.numbers[i]);
+            } else {
+                appendValue(String.valueOf(text));
+            }
+        }
+        if (record.thrown != null) {
+            LINE.append(" error=");
+            appendValue(String.valueOf(record.thrown));
+            StringWriter trace = new StringWriter();
+            record.thrown.printStackTrace(new PrintWriter(trace));
+            LINE.append('\n').append(trace);
+            if (LINE.charAt(LINE.length() - 1) == '\n') LINE.setLength(LINE.length() - 1);
+        }
+        LINE.append('\n');
+    }
+
+    // Quotes values with spaces, quotes, '=' or control characters, as logfmt does.
+    private static void appendValue(String value) {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            LINE.append(value);
+            return;
+        }
+        LINE.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                LINE.append('\\').append(c);
+            } else if (c == '\n') {
+                LINE.append("\\n");
+            } else if (c < ' ') {
+                LINE.append(' ');
+            } else {
+                LINE.append(c);
+            }
+        }
+        LINE.append('"');
+    }
+
+    private static void encode(FileChannel out) {
+        CharBuffer chars = CharBuffer.wrap(LINE);
+        UTF8.reset();
+        while (UTF8.encode(chars, BYTES, true).isOverflow()) drain(out);
+    }
+
+    private static void drain(FileChannel out) {
+        BYTES.flip();
+        try {
+            while (BYTES.hasRemaining()) out.write(BYTES);
+        } catch (IOException e) {
+            // Nowhere left to report it; drop the batch.
+        }
+        BYTES.clear();
+    }
+}
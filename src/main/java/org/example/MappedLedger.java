@@ -0,0 +1,334 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of balance changes in memory-mapped segment files. Every change is one
+ * fixed-size record, so a record's position follows from its sequence number:
+ * <pre>
+ *   0  sequence   i64   1, 2, 3, ... across all segments; also the transaction id
+ *   8  accountId  i32
+ *   12 type       u8    1 deposit, 2 withdrawal; 3 bytes of padding follow
+ *   16 amount     i64   minor units, always positive
+ *   24 millis     i64   epoch millis
+ *   32 crc        i32   CRC32C of bytes 0..31
+ *   36 reserved   i32
+ * </pre>
+ * Segments are named {@code ledger-<index>.seg} and are created full-size and zero-filled. When
+ * one fills up, it is forced to disk and the next one is started.
+ * <p>
+ * {@link #recover} replays records until it finds one whose CRC or sequence is wrong. Only the
+ * last segment may end that way, since a crash can only tear its tail; writing resumes there.
+ * Given a snapshot's sequence number, it starts at the segment holding the next record and replays
+ * only the tail. {@link #scan} reads the older records later.
+ * The fsync policy sets when appended records reach the disk:
+ * <ul>
+ *   <li>{@code always}: before {@link #append} returns. Concurrent appenders share each force.</li>
+ *   <li>{@code interval}: every {@code fsyncIntervalMillis}, on a background thread.</li>
+ *   <li>{@code never}: whenever the operating system writes the pages back.</li>
+ * </ul>
+ */
+final class MappedLedger implements Closeable {
+    static final int RECORD_BYTES = 40;
+    private static final int CRC_OFFSET = 32;
+
+    /** Receives recovered records in sequence order. */
+    interface RecordVisitor {
+        void record(long sequence, int accountId, byte type, long amount, long millis) throws IOException;
+    }
+
+    private static final class Segment {
+        final int index;
+        final MappedByteBuffer buffer;
+
+        Segment(int index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final String fsync;
+
+    private final Object appendLock = new Object();
+    // Guarded by appendLock.
+    private Segment current;
+    private int currentCapacity;
+    private int writeOffset;
+    private long lastSequence;
+    private final ByteBuffer scratch = ByteBuffer.allocate(RECORD_BYTES);
+    private final CRC32C crc = new CRC32C();
+
+    private final Object syncLock = new Object();
+    // Guarded by syncLock: everything before this point of this segment is on disk.
+    private Segment syncedSegment;
+    private int syncedOffset;
+
+    private volatile boolean closed;
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+    private final LongAdder forceNanos = new LongAdder();
+    private final LongAdder segments = new LongAdder();
+
+    MappedLedger(Path dir, long segmentBytes, String fsync, long fsyncIntervalMillis) throws IOException {
+        if (!fsync.equals("always") && !fsync.equals("interval") && !fsync.equals("never")) {
+            throw new IllegalArgumentException("Unknown fsync policy: " + fsync);
+        }
+        this.dir = Files.createDirectories(dir);
+        this.segmentBytes = (int) (Math.min(segmentBytes, Integer.MAX_VALUE) / RECORD_BYTES * RECORD_BYTES);
+        if (this.segmentBytes < RECORD_BYTES) throw new IllegalArgumentException("Segment too small: " + segmentBytes);
+        this.fsync = fsync;
+        if (fsync.equals("interval")) {
+            Thread.ofPlatform().name("ledger-fsync").daemon().start(() -> {
+                while (!closed) {
+                    try {
+                        Thread.sleep(fsyncIntervalMillis);
+                        sync();
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (IOException e) {
+                        Metrics.error("storage");
+                        Log.error("storage_error").put("op", "fsync").thrown(e).log();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Replays every intact record after {@code afterSequence} in order and positions the log after
+     * the last one. Call once, before the first {@link #append}. Returns the last sequence number,
+     * or 0 for an empty log.
+     */
+    long recover(long afterSequence, RecordVisitor visitor) throws IOException {
+        List<Path> files = segmentFiles();
+        synchronized (appendLock) {
+            // Segments wholly before the tail are skipped unread; only their first sequence is looked at.
+            int first = 0;
+            while (first + 1 < files.size()) {
+                long next = firstSequence(files.get(first + 1));
+                if (next == 0 || next > afterSequence + 1) break;
+                first++;
+            }
+            for (int i = first; i < files.size(); i++) {
+                boolean last = i == files.size() - 1;
+                Segment segment = map(files.get(i), indexOf(files.get(i)));
+                int capacity = segment.buffer.capacity() / RECORD_BYTES * RECORD_BYTES;
+                int offset = 0;
+                if (i == first && afterSequence > 0) {
+                    long skip = afterSequence + 1 - segment.buffer.getLong(0);
+                    if (skip < 0 || skip * RECORD_BYTES > capacity
+                            || (skip > 0 && !valid(segment.buffer, (int) (skip - 1) * RECORD_BYTES, afterSequence))) {
+                        throw new IOException("Ledger " + dir + " does not reach sequence " + afterSequence);
+                    }
+                    offset = (int) skip * RECORD_BYTES;
+                    lastSequence = afterSequence;
+                }
+                while (offset + RECORD_BYTES <= capacity && valid(segment.buffer, offset, lastSequence + 1)) {
+                    ByteBuffer b = segment.buffer;
+                    visitor.record(b.getLong(offset), b.getInt(offset + 8), b.get(offset + 12),
+                            b.getLong(offset + 16), b.getLong(offset + 24));
+                    lastSequence = b.getLong(offset);
+                    offset += RECORD_BYTES;
+                }
+                if (offset + RECORD_BYTES <= capacity && !last) {
+                    throw new IOException("Ledger segment " + files.get(i) + " is damaged at offset " + offset);
+                }
+                if (last) {
+                    // Clear whatever a torn write left behind, so it can't be mistaken for a record.
+                    for (int p = offset; p < Math.min(offset + RECORD_BYTES, capacity); p++) segment.buffer.put(p, (byte) 0);
+                    current = segment;
+                    writeOffset = offset;
+                    currentCapacity = capacity;
+                }
+            }
+            if (lastSequence < afterSequence) {
+                throw new IOException("Ledger " + dir + " ends at " + lastSequence + ", before sequence " + afterSequence);
+            }
+            if (current == null) {
+                current = map(segmentPath(0), 0);
+                currentCapacity = segmentBytes;
+            }
+            segments.add(files.isEmpty() ? 1 : files.size());
+        }
+        synchronized (syncLock) {
+            syncedSegment = current;
+            syncedOffset = 0;
+        }
+        return lastSequence;
+    }
+
+    /**
+     * Reads records {@code 1..toSequence} in order, checking each one, while appends go on. Used
+     * after {@link #recover} to load what a snapshot stood in for.
+     */
+    void scan(long toSequence, RecordVisitor visitor) throws IOException {
+        CRC32C check = new CRC32C();
+        long next = 1;
+        // By index rather than by listing the directory, which appends may be adding to.
+        for (int index = 0; next <= toSequence; index++) {
+            Path file = segmentPath(index);
+            if (!Files.exists(file)) break;
+            MappedByteBuffer b;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            for (int offset = 0; offset + RECORD_BYTES <= b.capacity() && next <= toSequence; offset += RECORD_BYTES) {
+                if (b.getLong(offset) != next) break;
+                check.reset();
+                check.update(b.slice(offset, CRC_OFFSET));
+                if ((int) check.getValue() != b.getInt(offset + CRC_OFFSET)) {
+                    throw new IOException("Ledger segment " + file + " is damaged at offset " + offset);
+                }
+                visitor.record(next, b.getInt(offset + 8), b.get(offset + 12), b.getLong(offset + 16), b.getLong(offset + 24));
+                next++;
+            }
+        }
+        if (next <= toSequence) throw new IOException("Ledger " + dir + " ends before sequence " + toSequence);
+    }
+
+    /** Appends a record and returns its sequence number; durable on return under the {@code always} policy. */
+    long append(int accountId, byte type, long amount, long millis) throws IOException {
+        long sequence;
+        synchronized (appendLock) {
+            if (closed) throw new IOException("ledger is closed");
+            if (writeOffset + RECORD_BYTES > currentCapacity) roll();
+            sequence = ++lastSequence;
+            scratch.clear();
+            scratch.putLong(sequence).putInt(accountId).put(type).put((byte) 0).putShort((short) 0)
+                    .putLong(amount).putLong(millis);
+            crc.reset();
+            crc.update(scratch.array(), 0, CRC_OFFSET);
+            scratch.putInt((int) crc.getValue()).putInt(0);
+            current.buffer.put(writeOffset, scratch.array(), 0, RECORD_BYTES);
+            writeOffset += RECORD_BYTES;
+        }
+        appended.increment();
+        if (fsync.equals("always")) sync();
+        return sequence;
+    }
+
+    /** Forces everything appended so far to disk. */
+    void sync() throws IOException {
+        Segment segment;
+        int upTo;
+        synchronized (appendLock) {
+            segment = current;
+            upTo = writeOffset;
+        }
+        synchronized (syncLock) {
+            if (segment.index < syncedSegment.index || (segment == syncedSegment && upTo <= syncedOffset)) return;
+            // A segment is forced completely when it is rolled, so a newer one starts from zero.
+            int from = segment == syncedSegment ? syncedOffset : 0;
+            long start = System.nanoTime();
+            segment.buffer.force(from, upTo - from);
+            forceNanos.add(System.nanoTime() - start);
+            forces.increment();
+            syncedSegment = segment;
+            syncedOffset = upTo;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!fsync.equals("never")) sync();
+        closed = true;
+    }
+
+    long getLastSequence() {
+        synchronized (appendLock) {
+            return lastSequence;
+        }
+    }
+
+    long getAppended() {
+        return appended.sum();
+    }
+
+    long getForces() {
+        return forces.sum();
+    }
+
+    double getAverageForceMillis() {
+        long n = forces.sum();
+        return n == 0 ? 0 : forceNanos.sum() / 1_000_000.0 / n;
+    }
+
+    long getSegments() {
+        return segments.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ledger fsync=%s segments=%d lastSequence=%d appended=%d forces=%d avgForceMs=%.3f",
+                fsync, getSegments(), getLastSequence(), getAppended(), getForces(), getAverageForceMillis());
+    }
+
+    private void roll() throws IOException {
+        if (!fsync.equals("never")) current.buffer.force();
+        current = map(segmentPath(current.index + 1), current.index + 1);
+        currentCapacity = segmentBytes;
+        writeOffset = 0;
+        segments.increment();
+    }
+
+    private boolean valid(ByteBuffer b, int offset, long expectedSequence) {
+        if (b.getLong(offset) != expectedSequence) return false;
+        crc.reset();
+        crc.update(b.slice(offset, CRC_OFFSET));
+        return (int) crc.getValue() == b.getInt(offset + CRC_OFFSET);
+    }
+
+    /** Maps a segment at its existing size, which may predate a change of segment size, or creates it. */
+    private Segment map(Path path, int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size() > 0 ? channel.size() : segmentBytes;
+            return new Segment(index, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private static long firstSequence(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(8);
+            while (b.hasRemaining() && channel.read(b, b.position()) > 0) {
+            }
+            return b.hasRemaining() ? 0 : b.getLong(0);
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> listing = Files.list(dir)) {
+            List<Path> files = new ArrayList<>(listing
+                    .filter(p -> p.getFileName().toString().matches("ledger-\\d+\\.seg"))
+                    .sorted()
+                    .toList());
+            for (int i = 0; i < files.size(); i++) {
+                if (indexOf(files.get(i)) != i) throw new IOException("Ledger segment " + i + " is missing in " + dir);
+            }
+            return files;
+        }
+    }
+
+    private Path segmentPath(int index) {
+        return dir.resolve(String.format("ledger-%08d.seg", index));
+    }
+
+    private static int indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring("ledger-".length(), name.length() - ".seg".length()));
+    }
+}
@@ -0,0 +1,571 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded store: the whole ledger in memory, made durable by files in one directory, so the
+ * server runs without a database.
+ * <p>
+ * Accounts are spread over {@link #STRIPES} stripes by id. Each stripe has one lock and an
+ * {@link IntObjectMap} from account id to that account's {@link Ledger}: its balance in minor units
+ * and its history as parallel primitive arrays, in {@code (timestamp, id)} order. A deposit or
+ * withdrawal takes only its stripe's lock. It checks the balance, appends a record to the
+ * {@link MappedLedger} and then applies the change; the record's sequence number is the
+ * transaction id.
+ * <p>
+ * Registrations are variable-length and rare, so they go to a separate append-only
+ * {@code accounts.log}, which is forced to disk before the account can be used unless the fsync
+ * policy is {@code never}. On startup the accounts log is replayed first, then the ledger. A torn
+ * registration at the end of the log, left by a crash mid-write, is cut off.
+ * <p>
+ * With snapshots on, a {@link BalanceSnapshot} is written every {@code snapshotIntervalMillis}
+ * and on shutdown. Each one locks a single stripe at a time. A restart loads the latest snapshot
+ * and replays only the ledger after it; the store is then ready. The history the snapshot stood
+ * in for is read back from the ledger on a background thread. Until that is done, history
+ * requests wait, while balances, deposits and withdrawals are served at once.
+ */
+public final class MemoryBankStore implements BankStore {
+    private static final int STRIPES = 256;
+    private static final byte RECORD_USER = 1;
+    private static final byte TYPE_DEPOSIT = 1;
+    private static final byte TYPE_WITHDRAW = 2;
+
+    /**
+     * One account's balance and history; guarded by its stripe's lock. After a snapshot load, the
+     * history only holds the rows after the snapshot until the backfill prepends the rest.
+     */
+    private static final class Ledger {
+        long balance;
+        long lastId;
+        long lastMillis;
+        int size;
+        long[] ids = new long[8];
+        long[] millis = new long[8];
+        long[] amounts = new long[8];
+        byte[] types = new byte[8];
+
+        void append(long id, long at, long amount, byte type) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                millis = Arrays.copyOf(millis, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                types = Arrays.copyOf(types, capacity);
+            }
+            ids[size] = id;
+            millis[size] = at;
+            amounts[size] = amount;
+            types[size] = type;
+            size++;
+            balance += type == TYPE_WITHDRAW ? -amount : amount;
+            lastId = id;
+            lastMillis = at;
+        }
+
+        /** Puts {@code older}'s rows in front of this history; the balance already includes them. */
+        void prepend(Ledger older) {
+            int total = older.size + size;
+            ids = join(older.ids, older.size, ids, size, new long[total]);
+            millis = join(older.millis, older.size, millis, size, new long[total]);
+            amounts = join(older.amounts, older.size, amounts, size, new long[total]);
+            byte[] joined = new byte[Math.max(8, total)];
+            System.arraycopy(older.types, 0, joined, 0, older.size);
+            System.arraycopy(types, 0, joined, older.size, size);
+            types = joined;
+            size = total;
+        }
+
+        private static long[] join(long[] first, int firstSize, long[] second, int secondSize, long[] into) {
+            if (into.length < 8) into = new long[8];
+            System.arraycopy(first, 0, into, 0, firstSize);
+            System.arraycopy(second, 0, into, firstSize, secondSize);
+            return into;
+        }
+
+        /** Index of the first row after {@code (afterMillis, afterId)}. */
+        int firstAfter(long afterMillis, long afterId) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (millis[mid] < afterMillis || (millis[mid] == afterMillis && ids[mid] <= afterId)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /** Index of the first row at or after {@code at}. */
+        int firstAtOrAfter(long at) {
+            return firstAfter(at, Long.MIN_VALUE);
+        }
+    }
+
+    private record User(String passwordHash, Account account) {
+    }
+
+    private final Object[] locks = new Object[STRIPES];
+    private final List<IntObjectMap<Ledger>> ledgers = new ArrayList<>(STRIPES);
+    private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Account> accountsByNumber = new ConcurrentHashMap<>();
+    private final AtomicInteger lastAccountId = new AtomicInteger();
+    private final AuthPool auth;
+    private final Random random = new Random();
+    private final Path dir;
+    private final boolean syncAccounts;
+    private final boolean snapshots;
+    private final MappedLedger ledger;
+    private final CountDownLatch historyLoaded = new CountDownLatch(1);
+    private volatile boolean historyFailed;
+    // Both guarded by this, which snapshots and shutdown hold.
+    private boolean closed;
+    private long lastSnapshotSequence;
+    private Thread snapshotter;
+    // Both guarded by journal.
+    private final FileChannel accountsChannel;
+    private final DataOutputStream journal;
+
+    public MemoryBankStore(Path dir, long segmentBytes, String fsync, long fsyncIntervalMillis,
+                           long snapshotIntervalMillis, AuthPool auth) throws IOException {
+        this.auth = auth;
+        this.dir = dir;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+            ledgers.add(new IntObjectMap<>(64));
+        }
+        Files.createDirectories(dir);
+        ledger = new MappedLedger(dir, segmentBytes, fsync, fsyncIntervalMillis);
+        syncAccounts = !fsync.equals("never");
+        snapshots = snapshotIntervalMillis > 0;
+
+        long start = System.nanoTime();
+        Path accountsLog = dir.resolve("accounts.log");
+        long validLength = replayAccounts(accountsLog);
+        BalanceSnapshot snapshot = snapshots ? BalanceSnapshot.latest(dir) : null;
+        if (snapshot != null) loadSnapshot(snapshot);
+        long transactions = replayLedger(snapshot == null ? 0 : snapshot.sequence);
+        Log.info("store_replayed").put("dir", dir).put("accounts", accounts()).put("transactions", transactions)
+                .put("snapshot_sequence", snapshot == null ? 0 : snapshot.sequence)
+                .put("replay_ms", (System.nanoTime() - start) / 1_000_000).log();
+
+        accountsChannel = FileChannel.open(accountsLog, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (accountsChannel.size() > validLength) {
+            Log.warn("torn_tail_discarded").put("file", accountsLog)
+                    .put("bytes", accountsChannel.size() - validLength).log();
+            accountsChannel.truncate(validLength);
+        }
+        accountsChannel.position(validLength);
+        journal = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(accountsChannel), 4096));
+
+        if (snapshot == null) {
+            historyLoaded.countDown();
+        } else {
+            lastSnapshotSequence = snapshot.sequence;
+            Thread.ofPlatform().name("ledger-backfill").daemon().start(() -> backfill(snapshot));
+        }
+        if (snapshots) {
+            snapshotter = Thread.ofPlatform().name("ledger-snapshot").daemon().start(() -> {
+                while (true) {
+                    try {
+                        Thread.sleep(snapshotIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    synchronized (this) {
+                        if (closed) return;
+                        if (ledger.getLastSequence() > lastSnapshotSequence) snapshot();
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public boolean registerUser(String username, String password) throws AuthPool.BusyException {
+        return createAccount(username, auth.hash(password)) != null;
+    }
+
+    /** Adds a user with an already hashed password; returns null if the name is taken or the log failed. */
+    Account createAccount(String username, String hash) {
+        // Registrations are rare; one at a time keeps usernames and account numbers unique.
+        synchronized (users) {
+            if (users.containsKey(username)) return null;
+            String number;
+            do {
+                number = String.valueOf(100000 + random.nextInt(900000));
+            } while (accountsByNumber.containsKey(number));
+            Account account = new Account(lastAccountId.incrementAndGet(), number);
+            try {
+                synchronized (journal) {
+                    journal.writeByte(RECORD_USER);
+                    journal.writeInt(account.id());
+                    journal.writeUTF(account.number());
+                    journal.writeUTF(username);
+                    journal.writeUTF(hash);
+                    journal.flush();
+                    if (syncAccounts) accountsChannel.force(false);
+                }
+            } catch (IOException e) {
+                failed("registerUser", e);
+                return null;
+            }
+            addUser(username, hash, account);
+            return account;
+        }
+    }
+
+    @Override
+    public Map<String, String> loginUser(String username, String password) {
+        Map<String, String> result = new HashMap<>();
+        User user = users.get(username);
+        try {
+            if (user == null) {
+                result.put("status", "FAILURE");
+                result.put("message", "User not found");
+            } else if (auth.verify(password, user.passwordHash())) {
+                result.put("status", "SUCCESS");
+                result.put("accountId", String.valueOf(user.account().id()));
+                result.put("accountNumber", user.account().number());
+            } else {
+                result.put("status", "FAILURE");
+                result.put("message", "Invalid password");
+            }
+        } catch (AuthPool.BusyException e) {
+            result.put("status", "BUSY");
+            result.put("message", e.getMessage());
+        }
+        return result;
+    }
+
+    @Override
+    public Account findAccount(String accountNumber) {
+        return accountsByNumber.get(accountNumber);
+    }
+
+    Account findUser(String username) {
+        User user = users.get(username);
+        return user == null ? null : user.account();
+    }
+
+    @Override
+    public boolean deposit(Account account, long amount) {
+        return apply(account, TYPE_DEPOSIT, amount);
+    }
+
+    @Override
+    public boolean withdraw(Account account, long amount) {
+        return apply(account, TYPE_WITHDRAW, amount);
+    }
+
+    private boolean apply(Account account, byte type, long units) {
+        if (units <= 0) return false;
+        int stripe = stripe(account.id());
+        synchronized (locks[stripe]) {
+            Ledger history = ledgers.get(stripe).get(account.id());
+            if (history == null) return false;
+            if (type == TYPE_WITHDRAW && history.balance < units) return false;
+            // Refuses what the jdbc store's DECIMAL(15,2) balance would, well before a long overflows.
+            if (type == TYPE_DEPOSIT && units > Money.MAX_BALANCE - history.balance) return false;
+            // Keeps each history in order even if the clock steps back.
+            long at = Math.max(System.currentTimeMillis(), history.lastMillis);
+            long id;
+            try {
+                id = ledger.append(account.id(), type, units, at);
+            } catch (IOException e) {
+                failed(type == TYPE_WITHDRAW ? "withdraw" : "deposit", e);
+                return false;
+            }
+            history.append(id, at, units, type);
+            return true;
+        }
+    }
+
+    @Override
+    public long getBalance(Account account) {
+        int stripe = stripe(account.id());
+        synchronized (locks[stripe]) {
+            Ledger ledger = ledgers.get(stripe).get(account.id());
+            return ledger == null ? -1 : ledger.balance;
+        }
+    }
+
+    @Override
+    public List<TransactionRecord> getTransactionHistory(Account account) {
+        List<TransactionRecord> transactions = new ArrayList<>();
+        if (!awaitHistory()) return transactions;
+        int stripe = stripe(account.id());
+        synchronized (locks[stripe]) {
+            Ledger ledger = ledgers.get(stripe).get(account.id());
+            if (ledger == null) return transactions;
+            for (int i = 0; i < ledger.size; i++) {
+                transactions.add(new TransactionRecord(typeName(ledger.types[i]), ledger.amounts[i],
+                        new Timestamp(ledger.millis[i])));
+            }
+        }
+        return transactions;
+    }
+
+    @Override
+    public HistoryQuery streamTransactions(Account account, HistoryQuery query, TransactionVisitor visitor)
+            throws IOException {
+        if (!awaitHistory()) throw new IOException("transaction history is unavailable");
+        // Copy the page under the lock, then hand it out without holding the lock during I/O.
+        int count;
+        long[] ids;
+        long[] millis;
+        long[] amounts;
+        byte[] types;
+        int stripe = stripe(account.id());
+        synchronized (locks[stripe]) {
+            Ledger ledger = ledgers.get(stripe).get(account.id());
+            if (ledger == null) return null;
+            int from = query.hasCursor() ? ledger.firstAfter(query.afterMillis(), query.afterId()) : 0;
+            if (query.fromMillis() > 0) from = Math.max(from, ledger.firstAtOrAfter(query.fromMillis()));
+            int to = query.toMillis() > 0 ? ledger.firstAtOrAfter(query.toMillis()) : ledger.size;
+            count = Math.max(0, Math.min(to - from, query.pageSize() + 1));
+            ids = Arrays.copyOfRange(ledger.ids, from, from + count);
+            millis = Arrays.copyOfRange(ledger.millis, from, from + count);
+            amounts = Arrays.copyOfRange(ledger.amounts, from, from + count);
+            types = Arrays.copyOfRange(ledger.types, from, from + count);
+        }
+
+        int rows = Math.min(count, query.pageSize());
+        for (int i = 0; i < rows; i++) {
+            visitor.row(ids[i], typeName(types[i]), amounts[i], new Timestamp(millis[i]));
+        }
+        return count > rows ? query.after(millis[rows - 1], ids[rows - 1]) : null;
+    }
+
+    /** Balances are always in memory; only the history behind a snapshot may still be loading. */
+    @Override
+    public void warmUp() {
+        awaitHistory();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (closed) return;
+        closed = true;
+        if (snapshotter != null) snapshotter.interrupt();
+        if (snapshots && ledger.getLastSequence() > lastSnapshotSequence) snapshot();
+        try {
+            ledger.close();
+        } catch (IOException e) {
+            failed("closeLedger", e);
+        }
+        synchronized (journal) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                failed("closeAccountsLog", e);
+            }
+        }
+    }
+
+    int accounts() {
+        return accountsByNumber.size();
+    }
+
+    MappedLedger ledger() {
+        return ledger;
+    }
+
+    /** Writes a snapshot of every balance without stopping traffic; returns false if it failed. */
+    synchronized boolean snapshot() {
+        long start = System.nanoTime();
+        // Every record up to here is applied by the time its stripe is locked below.
+        BalanceSnapshot snapshot = new BalanceSnapshot(ledger.getLastSequence(), accounts());
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                ledgers.get(stripe).forEach((accountId, history) -> {
+                    if (history.lastId > 0) snapshot.add(accountId, history.balance, history.lastId, history.lastMillis);
+                });
+            }
+        }
+        try {
+            // The snapshot must never be ahead of what a restart finds on disk.
+            ledger.sync();
+            synchronized (journal) {
+                journal.flush();
+                accountsChannel.force(false);
+            }
+            snapshot.write(dir);
+        } catch (IOException e) {
+            failed("snapshot", e);
+            return false;
+        }
+        lastSnapshotSequence = snapshot.sequence;
+        Log.info("snapshot_written").put("balances", snapshot.size).put("sequence", snapshot.sequence)
+                .put("write_ms", (System.nanoTime() - start) / 1_000_000).log();
+        return true;
+    }
+
+    /** Waits until the history older than the loaded snapshot is back; false if that failed. */
+    boolean awaitHistory() {
+        try {
+            historyLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !historyFailed;
+    }
+
+    private void addUser(String username, String hash, Account account) {
+        users.put(username, new User(hash, account));
+        accountsByNumber.put(account.number(), account);
+        int stripe = stripe(account.id());
+        synchronized (locks[stripe]) {
+            ledgers.get(stripe).put(account.id(), new Ledger());
+        }
+    }
+
+    /** Registers every account in the accounts log and returns the length of its intact prefix. */
+    private long replayAccounts(Path path) throws IOException {
+        if (!Files.exists(path)) return 0;
+        long valid = 0;
+        try (CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 64 * 1024));
+             DataInputStream in = new DataInputStream(counter)) {
+            while (true) {
+                int record = in.read();
+                if (record < 0) break;
+                if (record == RECORD_USER) {
+                    int accountId = in.readInt();
+                    String number = in.readUTF();
+                    String username = in.readUTF();
+                    String hash = in.readUTF();
+                    addUser(username, hash, new Account(accountId, number));
+                    lastAccountId.accumulateAndGet(accountId, Math::max);
+                } else {
+                    throw new IOException("corrupt accounts log record type " + record + " at offset " + valid);
+                }
+                valid = counter.count;
+            }
+        } catch (EOFException e) {
+            // A record cut short by a crash; everything before it is intact.
+        }
+        return valid;
+    }
+
+    private void loadSnapshot(BalanceSnapshot snapshot) throws IOException {
+        for (int i = 0; i < snapshot.size; i++) {
+            Ledger history = ledgers.get(stripe(snapshot.accountIds[i])).get(snapshot.accountIds[i]);
+            if (history == null) throw new IOException("snapshot balance for unknown account " + snapshot.accountIds[i]);
+            history.balance = snapshot.balances[i];
+            history.lastId = snapshot.lastIds[i];
+            history.lastMillis = snapshot.lastMillis[i];
+        }
+    }
+
+    /**
+     * Applies the ledger after {@code afterSequence} and returns the number of transactions applied.
+     * Records an account's snapshot entry already includes are skipped.
+     */
+    private long replayLedger(long afterSequence) throws IOException {
+        long[] transactions = new long[1];
+        ledger.recover(afterSequence, (sequence, accountId, type, amount, millis) -> {
+            Ledger history = ledgers.get(stripe(accountId)).get(accountId);
+            if (history == null) throw new IOException("ledger transaction " + sequence + " for unknown account " + accountId);
+            if (sequence <= history.lastId) return;
+            history.append(sequence, millis, amount, type);
+            transactions[0]++;
+        });
+        return transactions[0];
+    }
+
+    /** Reads the history the snapshot stood in for and puts it in front of each account's rows. */
+    private void backfill(BalanceSnapshot snapshot) {
+        long start = System.nanoTime();
+        IntObjectMap<Ledger> older = new IntObjectMap<>(snapshot.size);
+        IntObjectMap<long[]> watermarks = new IntObjectMap<>(snapshot.size);
+        long upTo = 0;
+        for (int i = 0; i < snapshot.size; i++) {
+            older.put(snapshot.accountIds[i], new Ledger());
+            watermarks.put(snapshot.accountIds[i], new long[] {snapshot.lastIds[i]});
+            upTo = Math.max(upTo, snapshot.lastIds[i]);
+        }
+        long[] rows = new long[1];
+        try {
+            ledger.scan(upTo, (sequence, accountId, type, amount, millis) -> {
+                long[] watermark = watermarks.get(accountId);
+                if (watermark == null || sequence > watermark[0]) return;
+                older.get(accountId).append(sequence, millis, amount, type);
+                rows[0]++;
+            });
+            for (int i = 0; i < snapshot.size; i++) {
+                int accountId = snapshot.accountIds[i];
+                int stripe = stripe(accountId);
+                synchronized (locks[stripe]) {
+                    ledgers.get(stripe).get(accountId).prepend(older.get(accountId));
+                }
+            }
+            Log.info("history_loaded").put("transactions", rows[0])
+                    .put("load_ms", (System.nanoTime() - start) / 1_000_000).log();
+        } catch (IOException e) {
+            failed("loadHistory", e);
+            historyFailed = true;
+        } finally {
+            historyLoaded.countDown();
+        }
+    }
+
+    private static void failed(String operation, IOException e) {
+        Metrics.error("storage");
+        Log.error("storage_error").put("op", operation).thrown(e).log();
+    }
+
+    private static String typeName(byte type) {
+        return type == TYPE_WITHDRAW ? "WITHDRAW" : "DEPOSIT";
+    }
+
+    private static int stripe(int accountId) {
+        return accountId & (STRIPES - 1);
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The server's in-process metrics: counters, gauges and latency timers, keyed by name and at
+ * most one label. Recording is lock-free: counters are {@link LongAdder}s and timers are
+ * {@link LatencyHistogram}s, and hot paths hold on to their instruments rather than looking them
+ * up. {@link #render()} prints everything in the Prometheus text format. {@link #start} serves
+ * that on {@code http://127.0.0.1:port/metrics} and logs it every {@code logIntervalMillis}.
+ * <p>
+ * Label values must come from a fixed set, never from client input, so the number of series
+ * stays bounded. {@link #command} maps unknown command names to {@code UNKNOWN} for that reason.
+ */
+final class Metrics {
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+    private static final String[] COMMANDS = {"REGISTER", "LOGIN", "DEPOSIT", "WITHDRAW", "BALANCE",
+            "TRANSACTIONS", "HISTORY", "TOKEN", "RESUME", "EXIT", "UNKNOWN"};
+
+    private static final ConcurrentHashMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> COMMAND_TIMERS = new ConcurrentHashMap<>();
+
+    static final LongAdder BYTES_IN = counter("bank_bytes_received_total");
+    static final LongAdder BYTES_OUT = counter("bank_bytes_sent_total");
+    static final LongAdder CONNECTIONS = counter("bank_connections_accepted_total");
+    static final LongAdder SESSIONS = new LongAdder();
+
+    static {
+        gauge("bank_sessions_active", SESSIONS::sum);
+        for (String command : COMMANDS) COMMAND_TIMERS.put(command, timer("bank_command_seconds", "command", command));
+    }
+
+    private Metrics() {
+    }
+
+    static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    static LongAdder counter(String name, String label, String value) {
+        return counter(series(name, label, value));
+    }
+
+    static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    static LatencyHistogram timer(String name, String label, String value) {
+        return TIMERS.computeIfAbsent(series(name, label, value), n -> new LatencyHistogram());
+    }
+
+    /** Publishes a timer that another class records into, e.g. a pool's wait times. */
+    static void timer(String name, String label, String value, LatencyHistogram timer) {
+        TIMERS.put(series(name, label, value), timer);
+    }
+
+    /** The latency timer for a protocol command such as {@code DEPOSIT}; shared by both protocols. */
+    static LatencyHistogram command(String name) {
+        return COMMAND_TIMERS.get(commandLabel(name));
+    }
+
+    /** {@code name} if it is a protocol command, otherwise {@code UNKNOWN}. */
+    static String commandLabel(String name) {
+        return COMMAND_TIMERS.containsKey(name) ? name : "UNKNOWN";
+    }
+
+    /**
+     * Counts one error of {@code kind}: {@code sql}, {@code storage}, {@code client_io},
+     * {@code bad_request}, {@code server_busy}, {@code auth_busy} or {@code task}.
+     */
+    static void error(String kind) {
+        counter("bank_errors_total", "kind", kind).increment();
+    }
+
+    static InputStream countIn(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) BYTES_IN.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) BYTES_IN.add(n);
+                return n;
+            }
+        };
+    }
+
+    static OutputStream countOut(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                BYTES_OUT.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                BYTES_OUT.add(len);
+            }
+        };
+    }
+
+    /** Every metric in the Prometheus text format, sorted by name. Timers are in seconds. */
+    static String render() {
+        StringBuilder out = new StringBuilder(8192);
+        new TreeMap<>(COUNTERS).forEach((name, value) -> out.append(name).append(' ').append(value.sum()).append('\n'));
+        new TreeMap<>(GAUGES).forEach((name, value) -> out.append(name).append(' ').append(value.getAsLong()).append('\n'));
+        new TreeMap<>(TIMERS).forEach((series, timer) -> {
+            if (timer.count() == 0) return;
+            int brace = series.indexOf('{');
+            String name = series.substring(0, brace);
+            String labels = series.substring(brace + 1, series.length() - 1);
+            for (String q : QUANTILES) {
+                out.append(name).append('{').append(labels).append(",quantile=\"").append(q).append("\"} ");
+                seconds(out, timer.valueAt(Double.parseDouble(q) * 100)).append('\n');
+            }
+            out.append(name).append("_max{").append(labels).append("} ");
+            seconds(out, timer.max()).append('\n');
+            out.append(name).append("_sum{").append(labels).append("} ");
+            seconds(out, timer.sum()).append('\n');
+            out.append(name).append("_count{").append(labels).append("} ").append(timer.count()).append('\n');
+        });
+        return out.toString();
+    }
+
+    /**
+     * Serves {@link #render()} on the loopback interface at {@code port} ({@code 0} turns it off)
+     * and logs it as one {@code metrics} record every {@code logIntervalMillis} ({@code 0} turns
+     * that off).
+     */
+    static void start(int port, long logIntervalMillis) throws IOException {
+        if (port > 0) {
+            HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            http.createContext("/metrics", exchange -> {
+                byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            http.start();
+            Log.info("metrics_started").put("url", "http://127.0.0.1:" + port + "/metrics").log();
+        }
+        if (logIntervalMillis > 0) {
+            Thread.ofPlatform().name("metrics-log").daemon().start(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(logIntervalMillis);
+                        Log.info("metrics").put("prometheus", render()).log();
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            });
+        }
+    }
+
+    private static String series(String name, String label, String value) {
+        return name + "{" + label + "=\"" + value + "\"}";
+    }
+
+    private static StringBuilder seconds(StringBuilder out, long nanos) {
+        return out.append(nanos / 1_000_000_000L).append('.')
+                .append(String.valueOf(1_000_000_000L + nanos % 1_000_000_000L), 1, 10);
+    }
+}
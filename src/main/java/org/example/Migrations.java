@@ -0,0 +1,168 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Versioned schema changes, applied in order at server start. The {@code schema_version} table
+ * records which versions a database already has, so each migration runs once. MySQL commits DDL
+ * implicitly, so every step checks whether its change is already in place; a migration that failed
+ * halfway can simply be run again.
+ * <p>
+ * Servers starting at the same time take a named lock, so only one of them migrates. New
+ * migrations are appended to {@link #MIGRATIONS} with the next version number; never edit one that
+ * has been released.
+ */
+final class Migrations {
+    private static final String LOCK_NAME = "secure_bank.migrations";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    private interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private record Migration(int version, String description, Step step) {
+    }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "baseline schema", sql(
+                    "CREATE TABLE IF NOT EXISTS users ("
+                            + "user_id INT AUTO_INCREMENT PRIMARY KEY, "
+                            + "username VARCHAR(50) UNIQUE NOT NULL, "
+                            + "password VARCHAR(255) NOT NULL)",
+                    "CREATE TABLE IF NOT EXISTS accounts ("
+                            + "account_id INT AUTO_INCREMENT PRIMARY KEY, "
+                            + "user_id INT NOT NULL, "
+                            + "account_number VARCHAR(10) UNIQUE NOT NULL, "
+                            + "balance DECIMAL(15, 2) DEFAULT 0.00, "
+                            + "FOREIGN KEY (user_id) REFERENCES users(user_id))",
+                    "CREATE TABLE IF NOT EXISTS transactions ("
+                            + "transaction_id INT AUTO_INCREMENT PRIMARY KEY, "
+                            + "account_id INT NOT NULL, "
+                            + "type ENUM('DEPOSIT', 'WITHDRAW') NOT NULL, "
+                            + "amount DECIMAL(15, 2) NOT NULL, "
+                            + "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP, "
+                            + "FOREIGN KEY (account_id) REFERENCES accounts(account_id))")),
+            // History reads one account's rows in (timestamp, transaction_id) order. type and amount
+            // ride along in the index so those reads never touch the table rows.
+            new Migration(2, "covering index for transaction history",
+                    createIndex("transactions", "idx_transactions_account_time",
+                            "account_id, timestamp, transaction_id, type, amount")),
+            // The new index starts with account_id, so it backs the foreign key on its own.
+            new Migration(3, "drop single-column account_id index on transactions",
+                    dropIndex("transactions", "account_id"))
+    );
+
+    private Migrations() {
+    }
+
+    /** Brings the schema up to date. Returns false, after logging why, if a migration failed. */
+    static boolean apply(ConnectionPool pool) {
+        try (Connection conn = pool.getConnection()) {
+            if (!lock(conn)) {
+                Log.error("migration_lock_timeout")
+                        .put("message", "Timed out waiting for another server to finish migrating").log();
+                return false;
+            }
+            try {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                            + "version INT PRIMARY KEY, "
+                            + "description VARCHAR(255) NOT NULL, "
+                            + "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+                }
+                int current = currentVersion(conn);
+                for (Migration migration : MIGRATIONS) {
+                    if (migration.version() <= current) continue;
+                    long start = System.nanoTime();
+                    migration.step().apply(conn);
+                    record(conn, migration);
+                    Log.info("migration_applied").put("version", migration.version())
+                            .put("description", migration.description())
+                            .put("apply_ms", (System.nanoTime() - start) / 1_000_000).log();
+                }
+                return true;
+            } finally {
+                unlock(conn);
+            }
+        } catch (SQLException e) {
+            Metrics.error("sql");
+            Log.error("sql_error").put("op", "migrate").thrown(e).log();
+            return false;
+        }
+    }
+
+    private static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void record(Connection conn, Migration migration) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+            stmt.setInt(1, migration.version());
+            stmt.setString(2, migration.description());
+            stmt.executeUpdate();
+        }
+    }
+
+    private static Step sql(String... statements) {
+        return conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                for (String statement : statements) stmt.execute(statement);
+            }
+        };
+    }
+
+    private static Step createIndex(String table, String index, String columns) {
+        return conn -> {
+            if (!indexExists(conn, table, index)) {
+                sql("CREATE INDEX " + index + " ON " + table + " (" + columns + ")").apply(conn);
+            }
+        };
+    }
+
+    private static Step dropIndex(String table, String index) {
+        return conn -> {
+            if (indexExists(conn, table, index)) {
+                sql("DROP INDEX " + index + " ON " + table).apply(conn);
+            }
+        };
+    }
+
+    private static boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        String sql = "SELECT 1 FROM information_schema.statistics "
+                + "WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ? LIMIT 1";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, table);
+            stmt.setString(2, index);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static boolean lock(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.execute();
+        }
+    }
+}
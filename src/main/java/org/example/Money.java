@@ -0,0 +1,73 @@
+package org.example;
+
+/**
+ * Money amounts are {@code long} minor units (cents) everywhere in the server and clients: on the
+ * wire, in the stores and in the GUI. They only become text at the edges, through the routines
+ * here. These scan characters directly, with no regex, {@code double} or {@code BigDecimal}, and
+ * {@link #appendTo} formats into a caller's builder without allocating.
+ */
+public final class Money {
+    /** What {@link #parse} returns for text that is not a valid amount. */
+    public static final long INVALID = -1;
+
+    /** The largest balance the database's {@code DECIMAL(15,2)} column holds, 9999999999999.99. */
+    public static final long MAX_BALANCE = 999_999_999_999_999L;
+
+    private static final long MAX_WHOLE = Long.MAX_VALUE / 100 - 1;
+
+    private Money() {
+    }
+
+    /**
+     * Parses a non-negative amount such as {@code 12}, {@code 12.5}, {@code 12.50} or {@code .5}
+     * into minor units. Returns {@link #INVALID} for anything else, including signs, exponents,
+     * more than two decimals and a trailing point.
+     */
+    public static long parse(CharSequence text) {
+        int n = text.length();
+        if (n == 0) return INVALID;
+        long whole = 0;
+        int i = 0;
+        for (; i < n; i++) {
+            char c = text.charAt(i);
+            if (c == '.') break;
+            if (c < '0' || c > '9' || whole > MAX_WHOLE / 10) return INVALID;
+            whole = whole * 10 + (c - '0');
+        }
+        // The loop only keeps whole from overflowing; it can still end up past MAX_WHOLE.
+        if (whole > MAX_WHOLE) return INVALID;
+        long cents = 0;
+        if (i < n) {
+            int decimals = n - i - 1;
+            if (decimals < 1 || decimals > 2) return INVALID;
+            for (int d = 0; d < 2; d++) {
+                int digit = 0;
+                if (d < decimals) {
+                    char c = text.charAt(i + 1 + d);
+                    if (c < '0' || c > '9') return INVALID;
+                    digit = c - '0';
+                }
+                cents = cents * 10 + digit;
+            }
+        }
+        return whole * 100 + cents;
+    }
+
+    /** Formats minor units with exactly two decimals, e.g. {@code 1250} as {@code 12.50}. */
+    public static String format(long minor) {
+        return appendTo(new StringBuilder(24), minor).toString();
+    }
+
+    /** Appends {@link #format}'s text to {@code out}. */
+    public static StringBuilder appendTo(StringBuilder out, long minor) {
+        // Negate the parts rather than the whole, which would overflow for Long.MIN_VALUE.
+        long whole = minor / 100;
+        int cents = (int) (minor % 100);
+        if (minor < 0) {
+            out.append('-');
+            whole = -whole;
+            cents = -cents;
+        }
+        return out.append(whole).append('.').append((char) ('0' + cents / 10)).append((char) ('0' + cents % 10));
+    }
+}
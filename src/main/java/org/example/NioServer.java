@@ -0,0 +1,372 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking server engine. An acceptor thread spreads connections round-robin over a few
+ * selector event loops, which do all socket reads and writes. Each loop has one direct read
+ * buffer and one direct write buffer shared by all its connections. Complete frames go to a
+ * per-connection inbox, and a worker pool runs them through the connection's {@link Session}
+ * one at a time and in order. Replies go back to the owning loop to be written.
+ * <p>
+ * The wire format is the same {@code writeUTF}/{@code readUTF} framing as the thread-per-connection
+ * server, so existing clients work unchanged. Clients offering protocol v2 are answered with
+ * {@link BinaryProtocol#VERSION_LEGACY} and carry on with strings. An idle connection costs a channel, a selection
+ * key and a small {@link Session}; no thread and no buffer. With no thread to time out, silent
+ * connections are closed by the {@link ConnectionReaper}.
+ * <p>
+ * A client that sends commands but does not read its replies is held back. Once its unsent
+ * replies pass {@link #OUTBOX_HIGH_WATER} bytes, its commands stop running until the loop has
+ * written the outbox down below {@link #OUTBOX_LOW_WATER}. Meanwhile its inbox fills up and
+ * reads pause, so the server never buffers more than about one command's reply past the mark.
+ */
+class NioServer {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    // Stop reading from a client that has this many commands waiting to run.
+    private static final int MAX_PENDING_COMMANDS = 64;
+    // Stop running a client's commands while this many reply bytes wait to be written to it, and
+    // start again once fewer than the low-water mark do.
+    private static final int OUTBOX_HIGH_WATER = 256 * 1024;
+    private static final int OUTBOX_LOW_WATER = 64 * 1024;
+
+    private final int port;
+    private final int maxConnections;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private final AtomicInteger connections = new AtomicInteger();
+
+    NioServer(int port, int eventLoops, int workerThreads, int maxConnections) throws IOException {
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.workers = Executors.newFixedThreadPool(workerThreads, Thread.ofPlatform().name("nio-worker-", 0).factory());
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) loops[i] = new EventLoop();
+    }
+
+    void run(int acceptBacklog) throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            Thread.ofPlatform().name("nio-loop-" + i).start(loops[i]);
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), acceptBacklog);
+            Drain.install(server);
+            Log.info("server_started").put("port", port).put("mode", "nio").put("event_loops", loops.length)
+                    .put("max_connections", maxConnections).log();
+
+            int next = 0;
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (ClosedChannelException e) {
+                    if (Admission.isClosing()) return;
+                    throw e;
+                }
+                Log.info("connect").put("remote", channel.socket().getRemoteSocketAddress()).log();
+                Metrics.CONNECTIONS.increment();
+                if (connections.incrementAndGet() > maxConnections) {
+                    connections.decrementAndGet();
+                    Metrics.error("server_busy");
+                    reject(channel);
+                    continue;
+                }
+                channel.configureBlocking(false);
+                Server_Thread.tune(channel.socket());
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    int connections() {
+        return connections.get();
+    }
+
+    private static void reject(SocketChannel channel) {
+        try (channel) {
+            channel.write(ByteBuffer.wrap(Utf8Frames.encode("ERROR: Server busy, try again later")));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private final char[] scratch = new char[Utf8Frames.MAX_PAYLOAD];
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key));
+                    Metrics.SESSIONS.increment();
+                } catch (IOException e) {
+                    connections.decrementAndGet();
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection c = (Connection) key.attachment();
+                        if (key.isValid() && key.isReadable()) read(c);
+                        if (key.isValid() && key.isWritable()) flush(c);
+                    }
+                } catch (IOException e) {
+                    Log.error("event_loop_error").thrown(e).log();
+                }
+            }
+        }
+
+        private void read(Connection c) {
+            readBuffer.clear();
+            try {
+                int n = c.channel.read(readBuffer);
+                if (n < 0) {
+                    close(c);
+                    return;
+                }
+                Metrics.BYTES_IN.add(n);
+                c.lease.touch();
+                readBuffer.flip();
+                if (!c.negotiated) negotiate(c);
+                c.decoder.decode(readBuffer, scratch, c::received);
+            } catch (IOException e) {
+                Metrics.error("client_io");
+                close(c);
+            }
+        }
+
+        // A v2 hello is sent in one write, so it arrives whole at the start of the first read.
+        private void negotiate(Connection c) {
+            c.negotiated = true;
+            int at = readBuffer.position();
+            if (readBuffer.remaining() >= 4 && (readBuffer.get(at) & 0xFF) == BinaryProtocol.MAGIC_HI
+                    && (readBuffer.get(at + 1) & 0xFF) == BinaryProtocol.MAGIC_LO) {
+                readBuffer.position(at + 4);
+                c.send(new byte[]{(byte) BinaryProtocol.MAGIC_HI, (byte) BinaryProtocol.MAGIC_LO,
+                        (byte) BinaryProtocol.VERSION_LEGACY, 0});
+                c.requestFlush();
+            }
+        }
+
+        private void flush(Connection c) {
+            c.flushRequested.set(false);
+            if (c.closed) return;
+            try {
+                while (!c.outbox.isEmpty()) {
+                    writeBuffer.clear();
+                    int offset = c.headOffset;
+                    for (byte[] frame : c.outbox) {
+                        int n = Math.min(frame.length - offset, writeBuffer.remaining());
+                        writeBuffer.put(frame, offset, n);
+                        offset = 0;
+                        if (!writeBuffer.hasRemaining()) break;
+                    }
+                    writeBuffer.flip();
+                    int n = c.channel.write(writeBuffer);
+                    Metrics.BYTES_OUT.add(n);
+                    if (n > 0) c.lease.touch();
+                    c.consume(n);
+                    if (writeBuffer.hasRemaining()) break;
+                }
+            } catch (IOException e) {
+                Metrics.error("client_io");
+                close(c);
+                return;
+            }
+            if (c.writeBlocked && c.outboxBytes.get() < OUTBOX_LOW_WATER) {
+                c.writeBlocked = false;
+                c.schedule();
+            }
+
+            if (c.outbox.isEmpty()) {
+                if (c.closing) {
+                    close(c);
+                } else if ((c.key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                    c.key.interestOps(c.key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+            } else {
+                c.key.interestOps(c.key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void resumeReads(Connection c) {
+            if (c.closed || !c.readsPaused) return;
+            c.readsPaused = false;
+            c.key.interestOps(c.key.interestOps() | SelectionKey.OP_READ);
+        }
+
+        private void close(Connection c) {
+            if (c.closed) return;
+            c.closed = true;
+            c.closing = true;
+            c.key.cancel();
+            try {
+                c.channel.close();
+            } catch (IOException ignored) {
+            }
+            connections.decrementAndGet();
+            ConnectionReaper.release(c.lease);
+            Metrics.SESSIONS.decrement();
+            Log.info("disconnect").put("session", c.session.id())
+                    .put("remote", c.channel.socket().getRemoteSocketAddress()).log();
+        }
+    }
+
+    private final class Connection {
+        final EventLoop loop;
+        final SocketChannel channel;
+        final SelectionKey key;
+        final FrameDecoder decoder = new FrameDecoder();
+        final Session session = new Session();
+        final ConnectionReaper.Lease lease;
+
+        final Queue<String> inbox = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pendingCommands = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final Queue<byte[]> outbox = new ConcurrentLinkedQueue<>();
+        final AtomicInteger outboxBytes = new AtomicInteger();
+        final AtomicBoolean flushRequested = new AtomicBoolean();
+        volatile boolean closing;
+        volatile boolean readsPaused;
+        // Set while commands wait for the outbox to drain below OUTBOX_LOW_WATER.
+        volatile boolean writeBlocked;
+
+        // Owned by the event loop thread.
+        boolean negotiated;
+        int headOffset;
+        boolean closed;
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            this.lease = ConnectionReaper.track(() -> loop.execute(() -> loop.close(this)));
+            // Queued on the loop ahead of the close that follows, so it is written first.
+            lease.onShutdown(() -> {
+                try {
+                    reply("BUSY: " + Admission.reason(Admission.CLOSING));
+                } catch (IOException ignored) {
+                }
+            });
+        }
+
+        // Event loop thread.
+        void received(String command) {
+            if (closing) return;
+            inbox.add(command);
+            if (pendingCommands.incrementAndGet() >= MAX_PENDING_COMMANDS && !readsPaused) {
+                readsPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            if (!writeBlocked) schedule();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) workers.execute(this::process);
+        }
+
+        // Worker thread; at most one at a time per connection.
+        void process() {
+            String command;
+            while (true) {
+                if (!closing && outboxBytes.get() >= OUTBOX_HIGH_WATER) {
+                    writeBlocked = true;
+                    // Checked again in case flush() drained the outbox before seeing the flag.
+                    if (outboxBytes.get() >= OUTBOX_HIGH_WATER) break;
+                    writeBlocked = false;
+                }
+                if ((command = inbox.poll()) == null) break;
+                pendingCommands.decrementAndGet();
+                if (closing) continue;
+                try {
+                    if (!session.handle(command, this::reply)) closing = true;
+                } catch (IOException e) {
+                    closing = true;
+                }
+            }
+            if (closing) {
+                requestFlush();
+            } else if (readsPaused && pendingCommands.get() < MAX_PENDING_COMMANDS / 2) {
+                loop.execute(() -> loop.resumeReads(this));
+            }
+
+            scheduled.set(false);
+            if (!inbox.isEmpty() && !writeBlocked) schedule();
+        }
+
+        void reply(String message) throws IOException {
+            send(Utf8Frames.encode(message));
+            requestFlush();
+        }
+
+        void send(byte[] frame) {
+            outboxBytes.addAndGet(frame.length);
+            outbox.add(frame);
+        }
+
+        void requestFlush() {
+            if (flushRequested.compareAndSet(false, true)) loop.execute(() -> loop.flush(this));
+        }
+
+        // Event loop thread: drops n written bytes from the head of the outbox.
+        void consume(int written) {
+            int n = written;
+            while (n > 0) {
+                byte[] head = outbox.peek();
+                int left = head.length - headOffset;
+                if (n >= left) {
+                    outbox.poll();
+                    headOffset = 0;
+                    n -= left;
+                } else {
+                    headOffset += n;
+                    n = 0;
+                }
+            }
+            outboxBytes.addAndGet(-written);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.example;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+import static org.example.BinaryProtocol.STATUS_BUSY;
+
+/**
+ * Compares lock-step and pipelined throughput for a stream of small deposits from one client:
+ * <pre>
+ *   java -cp ... org.example.PipelineBenchmark [host] [port] username password [requests] [window]
+ * </pre>
+ * The lock-step run is today's client loop: a legacy {@code DEPOSIT} string, then wait for the
+ * reply. The pipelined run uses {@link PipelinedClient} and keeps up to {@code window} deposits
+ * outstanding. Each deposit is one cent, so the account grows by {@code 2 * requests} cents.
+ * <p>
+ * Any reply other than success, {@code BUSY} included, fails the run, and so does a final
+ * balance that is not the starting balance plus every deposit. Start the server with
+ * {@code -Dbank.limit.connectionRate=0 -Dbank.limit.accountRate=0}, or the default rate limits
+ * refuse most of the deposits.
+ */
+public class PipelineBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: PipelineBenchmark host port username password [requests] [window]");
+            return;
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        String username = args[2];
+        String password = args[3];
+        int requests = args.length > 4 ? Integer.parseInt(args[4]) : 2_000;
+        int window = args.length > 5 ? Integer.parseInt(args[5]) : 64;
+
+        double lockStep;
+        double pipelined;
+        try {
+            long before = balance(host, port, username, password);
+            lockStep = lockStep(host, port, username, password, requests);
+            pipelined = pipelined(host, port, username, password, requests, window);
+            long after = balance(host, port, username, password);
+            if (after != before + 2L * requests) {
+                throw new IllegalStateException("balance is " + Money.format(after) + ", expected "
+                        + Money.format(before + 2L * requests));
+            }
+        } catch (IllegalStateException e) {
+            System.out.println("Failed: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.out.printf("lock-step: %.0f req/s%npipelined (window %d): %.0f req/s (%.1fx)%n",
+                lockStep, window, pipelined, pipelined / lockStep);
+    }
+
+    private static double lockStep(String host, int port, String username, String password, int requests)
+            throws Exception {
+        try (Socket socket = new Socket(host, port)) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF("LOGIN:" + username + ":" + password);
+            String login = in.readUTF();
+            if (!login.startsWith("SUCCESS")) throw new IllegalStateException(login);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                out.writeUTF("DEPOSIT:0.01");
+                String reply = in.readUTF();
+                if (!reply.startsWith("SUCCESS")) throw failed("lock-step", reply);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            out.writeUTF("EXIT");
+            return requests / seconds;
+        }
+    }
+
+    private static double pipelined(String host, int port, String username, String password, int requests,
+                                    int window) throws Exception {
+        try (PipelinedClient client = new PipelinedClient(host, port)) {
+            PipelinedClient.Reply login = client.login(username, password);
+            if (!login.ok()) throw new IllegalStateException(login.text());
+
+            ArrayDeque<CompletableFuture<PipelinedClient.Reply>> outstanding = new ArrayDeque<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                if (outstanding.size() == window) {
+                    client.flush();
+                    check(outstanding.poll().join());
+                }
+                outstanding.add(client.deposit(1));
+            }
+            client.flush();
+            while (!outstanding.isEmpty()) check(outstanding.poll().join());
+            return requests / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    private static long balance(String host, int port, String username, String password) throws Exception {
+        try (PipelinedClient client = new PipelinedClient(host, port)) {
+            PipelinedClient.Reply login = client.login(username, password);
+            if (!login.ok()) throw new IllegalStateException(login.text());
+            CompletableFuture<PipelinedClient.Reply> balance = client.balance();
+            client.flush();
+            return check(balance.join()).amount();
+        }
+    }
+
+    private static PipelinedClient.Reply check(PipelinedClient.Reply reply) {
+        if (reply.ok()) return reply;
+        throw failed("pipelined", (reply.status() == STATUS_BUSY ? "BUSY: " : "ERROR: ") + reply.text());
+    }
+
+    private static IllegalStateException failed(String run, String reply) {
+        String hint = reply.startsWith("BUSY")
+                ? " (start the server with -Dbank.limit.connectionRate=0 -Dbank.limit.accountRate=0)" : "";
+        return new IllegalStateException(run + " request failed: " + reply + hint);
+    }
+}
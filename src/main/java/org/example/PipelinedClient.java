@@ -0,0 +1,230 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.example.BinaryProtocol.*;
+
+/**
+ * Protocol v2 client that doesn't wait for one reply before sending the next request. Each
+ * call tags its request with a fresh id and returns a future completed by the reader thread
+ * when the reply with that id arrives. Requests are buffered until {@link #flush()}, so a batch
+ * of calls followed by one flush goes out in a single write:
+ * <pre>
+ *   try (PipelinedClient client = new PipelinedClient("localhost", 4000)) {
+ *       client.login("alice", "secret");
+ *       List&lt;CompletableFuture&lt;Reply&gt;&gt; replies = new ArrayList&lt;&gt;();
+ *       for (int i = 0; i &lt; 10; i++) replies.add(client.deposit(500));
+ *       client.flush();
+ *       for (CompletableFuture&lt;Reply&gt; reply : replies) reply.join();
+ *   }
+ * </pre>
+ * The server runs a session's requests in the order they were sent.
+ */
+public class PipelinedClient implements Closeable {
+
+    /**
+     * A decoded reply. {@code amount} holds the minor units of deposit, withdraw and balance
+     * replies; {@code text} holds the account number after login, the next page's cursor after
+     * history (empty on the last page), or the error message when {@code status} is not
+     * {@link BinaryProtocol#STATUS_OK}.
+     */
+    public record Reply(int opcode, int requestId, int status, long amount, String text,
+                        List<TransactionRecord> transactions) {
+        public boolean ok() {
+            return status == STATUS_OK;
+        }
+    }
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final OutputStream output;
+    private final BinaryFrame request = new BinaryFrame(128);
+    private final ConcurrentHashMap<Integer, CompletableFuture<Reply>> inFlight = new ConcurrentHashMap<>();
+    // Rows of streamed history replies received so far; only touched by the reader thread.
+    private final Map<Integer, List<TransactionRecord>> partial = new HashMap<>();
+    private int nextRequestId;
+    private volatile String resumeToken;
+
+    public PipelinedClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        input = new DataInputStream(socket.getInputStream());
+        output = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        if (negotiate(input, output) != VERSION_2) {
+            socket.close();
+            throw new IOException("server does not support protocol v2");
+        }
+        Thread.ofPlatform().name("pipelined-client-reader").daemon().start(this::readReplies);
+    }
+
+    /** Logs in and waits for the reply, since later requests depend on the session. */
+    public Reply login(String username, String password) throws IOException {
+        CompletableFuture<Reply> reply = send(OP_LOGIN, username, password, 0);
+        flush();
+        return reply.join();
+    }
+
+    /** Authenticates with a token from an earlier connection, see {@link #resumeToken()}. */
+    public Reply resume(String token) throws IOException {
+        CompletableFuture<Reply> reply;
+        synchronized (this) {
+            reply = begin(OP_RESUME);
+            request.putString(token);
+            request.writeTo(output);
+        }
+        flush();
+        return reply.join();
+    }
+
+    /** The token from the last successful login or resume, or null. */
+    public String resumeToken() {
+        return resumeToken;
+    }
+
+    public CompletableFuture<Reply> register(String username, String password) throws IOException {
+        return send(OP_REGISTER, username, password, 0);
+    }
+
+    public CompletableFuture<Reply> deposit(long minorUnits) throws IOException {
+        return send(OP_DEPOSIT, null, null, minorUnits);
+    }
+
+    public CompletableFuture<Reply> withdraw(long minorUnits) throws IOException {
+        return send(OP_WITHDRAW, null, null, minorUnits);
+    }
+
+    public CompletableFuture<Reply> balance() throws IOException {
+        return send(OP_BALANCE, null, null, 0);
+    }
+
+    public CompletableFuture<Reply> transactions() throws IOException {
+        return send(OP_TRANSACTIONS, null, null, 0);
+    }
+
+    /**
+     * Requests one page of history. The reply's {@code transactions} hold every row of the page,
+     * gathered from all of its frames, and {@code text} the cursor for
+     * {@link HistoryQuery#withCursor}.
+     */
+    public synchronized CompletableFuture<Reply> history(HistoryQuery query) throws IOException {
+        CompletableFuture<Reply> reply = begin(OP_HISTORY);
+        request.putInt(query.pageSize()).putLong(query.afterMillis()).putLong(query.afterId())
+                .putLong(query.fromMillis()).putLong(query.toMillis());
+        request.writeTo(output);
+        return reply;
+    }
+
+    /** Sends everything buffered so far. */
+    public synchronized void flush() throws IOException {
+        output.flush();
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            send(OP_EXIT, null, null, 0);
+            flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private synchronized CompletableFuture<Reply> send(int opcode, String username, String password, long amount)
+            throws IOException {
+        CompletableFuture<Reply> reply = begin(opcode);
+        if (username != null) request.putString(username).putString(password);
+        if (opcode == OP_DEPOSIT || opcode == OP_WITHDRAW) request.putLong(amount);
+        request.writeTo(output);
+        return reply;
+    }
+
+    /** Starts a request frame with a fresh id; callers hold the lock until it is written. */
+    private CompletableFuture<Reply> begin(int opcode) {
+        int requestId = ++nextRequestId;
+        CompletableFuture<Reply> reply = new CompletableFuture<>();
+        inFlight.put(requestId, reply);
+        request.clear().putByte(opcode).putInt(requestId);
+        return reply;
+    }
+
+    private void readReplies() {
+        BinaryFrame frame = new BinaryFrame(4096);
+        try {
+            while (true) {
+                frame.readFrom(input);
+                Reply reply = decode(frame);
+                if (reply == null) continue;
+                CompletableFuture<Reply> waiting = inFlight.remove(reply.requestId());
+                if (waiting != null) waiting.complete(reply);
+            }
+        } catch (IOException e) {
+            for (CompletableFuture<Reply> waiting : inFlight.values()) waiting.completeExceptionally(e);
+            inFlight.clear();
+        }
+    }
+
+    /** Decodes a reply, or returns null for a history frame that isn't the last of its page. */
+    private Reply decode(BinaryFrame frame) throws IOException {
+        int opcode = frame.getByte();
+        int requestId = frame.getInt();
+        int status = frame.getByte();
+        if (status != STATUS_OK) {
+            partial.remove(requestId);
+            return new Reply(opcode, requestId, status, 0, frame.getString(), null);
+        }
+
+        switch (opcode) {
+            case OP_LOGIN:
+            case OP_RESUME: {
+                String accountNumber = frame.getString();
+                String token = frame.getString();
+                resumeToken = token.isEmpty() ? null : token;
+                return new Reply(opcode, requestId, status, 0, accountNumber, null);
+            }
+            case OP_DEPOSIT:
+            case OP_WITHDRAW:
+            case OP_BALANCE:
+                return new Reply(opcode, requestId, status, frame.getLong(), null, null);
+            case OP_TRANSACTIONS:
+                return new Reply(opcode, requestId, status, 0, null, readRows(frame, new ArrayList<>()));
+            case OP_HISTORY: {
+                boolean last = frame.getByte() == 1;
+                List<TransactionRecord> rows = readRows(frame, partial.computeIfAbsent(requestId, id -> new ArrayList<>()));
+                if (!last) return null;
+                partial.remove(requestId);
+                long nextMillis = frame.getLong();
+                long nextId = frame.getLong();
+                String cursor = nextId < 0 ? "" : HistoryQuery.firstPage(1, 0, 0).after(nextMillis, nextId).cursor();
+                return new Reply(opcode, requestId, status, 0, cursor, rows);
+            }
+            default:
+                return new Reply(opcode, requestId, status, 0, null, null);
+        }
+    }
+
+    private static List<TransactionRecord> readRows(BinaryFrame frame, List<TransactionRecord> rows) throws IOException {
+        int count = frame.getInt();
+        for (int i = 0; i < count; i++) {
+            String type = frame.getByte() == TYPE_WITHDRAW ? "WITHDRAW" : "DEPOSIT";
+            long amount = frame.getLong();
+            rows.add(new TransactionRecord(type, amount, new Timestamp(frame.getLong())));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,105 @@
+package org.example;
+
+/**
+ * Server settings, read once at startup from {@code -Dbank.*} system properties.
+ */
+final class ServerConfig {
+    static final int SERVER_PORT = Integer.getInteger("bank.server.port", 4000);
+    /**
+     * {@code platform} runs one OS thread per connection, {@code virtual} one virtual thread, and
+     * {@code nio} multiplexes all connections over a few selector threads. {@code nio} speaks only
+     * the legacy string protocol: it answers a v2 hello with {@link BinaryProtocol#VERSION_LEGACY}.
+     */
+    static final String SERVER_MODE = System.getProperty("bank.server.mode", "platform");
+    static final int MAX_SESSIONS = Integer.getInteger("bank.server.maxSessions", 10_000);
+    static final int MAX_QUEUED_CONNECTIONS = Integer.getInteger("bank.server.maxQueuedConnections", 1_000);
+    /** Connections the OS may hold waiting for {@code accept()}; beyond that it refuses them. */
+    static final int ACCEPT_BACKLOG = Integer.getInteger("bank.server.acceptBacklog", 128);
+    /**
+     * A connection is closed after {@code idleTimeoutMs} without a request, or when a request takes
+     * longer than {@code readTimeoutMs} to arrive once it has started. The reaper sweeps every
+     * {@code reaperIntervalMs} for connections silent for both together. 0 turns each off. The
+     * read timeout is capped at the idle timeout.
+     */
+    static final long IDLE_TIMEOUT_MS = Long.getLong("bank.server.idleTimeoutMs", 300_000);
+    static final long READ_TIMEOUT_MS = Long.getLong("bank.server.readTimeoutMs", 30_000);
+    static final long REAPER_INTERVAL_MS = Long.getLong("bank.server.reaperIntervalMs", 10_000);
+    /** How long a shutdown waits for running commands before it flushes the store and closes connections. */
+    static final long DRAIN_TIMEOUT_MS = Long.getLong("bank.server.drainTimeoutMs", 10_000);
+    // Applied to every accepted socket; the keep-alive timings only where the OS supports them.
+    static final boolean TCP_NO_DELAY = !"false".equals(System.getProperty("bank.server.tcpNoDelay"));
+    static final boolean TCP_KEEP_ALIVE = !"false".equals(System.getProperty("bank.server.keepAlive"));
+    static final int TCP_KEEP_IDLE_SECONDS = Integer.getInteger("bank.server.keepAliveIdleSec", 60);
+    static final int TCP_KEEP_INTERVAL_SECONDS = Integer.getInteger("bank.server.keepAliveIntervalSec", 10);
+    static final int TCP_KEEP_COUNT = Integer.getInteger("bank.server.keepAliveCount", 5);
+    /**
+     * Whether clients may negotiate the binary protocol; the legacy string protocol is always available.
+     * Has no effect in {@code nio} mode, which never agrees to v2.
+     */
+    static final boolean PROTOCOL_V2_ENABLED = !"false".equals(System.getProperty("bank.protocol.v2"));
+    /** Single-threaded shards that run account commands, each account always on the same one. */
+    static final int ACCOUNT_SHARDS = Integer.getInteger("bank.accountShards", 32);
+    static final int NIO_EVENT_LOOPS = Integer.getInteger("bank.nio.eventLoops",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    static final int NIO_WORKERS = Integer.getInteger("bank.nio.workers", 32);
+
+    // "jdbc" keeps everything in MySQL; "memory" runs on the embedded ledger, no database needed.
+    static final String STORE = System.getProperty("bank.store", "jdbc");
+    static final String MEMORY_DIR = System.getProperty("bank.store.dir", "bank-data");
+    static final long MEMORY_SEGMENT_BYTES = Long.getLong("bank.store.segmentBytes", 64L * 1024 * 1024);
+    // When ledger records reach the disk: "always" before a change is acknowledged, "interval", or "never".
+    static final String MEMORY_FSYNC = System.getProperty("bank.store.fsync", "always");
+    static final long MEMORY_FSYNC_INTERVAL_MS = Long.getLong("bank.store.fsyncIntervalMs", 10);
+    /** How often the memory store snapshots its balances so a restart replays less; 0 turns snapshots off. */
+    static final long MEMORY_SNAPSHOT_INTERVAL_MS = Long.getLong("bank.store.snapshotIntervalMs", 60_000);
+
+    static final String DB_URL = System.getProperty("bank.db.url", "jdbc:mysql://localhost:3306/secure_bank");
+    static final String DB_USER = System.getProperty("bank.db.user", "root");
+    static final String DB_PASSWORD = System.getProperty("bank.db.password", "");
+
+    static final int DB_POOL_MAX_SIZE = Integer.getInteger("bank.db.pool.maxSize", 10);
+    static final int DB_POOL_MIN_IDLE = Integer.getInteger("bank.db.pool.minIdle", 2);
+    static final long DB_POOL_ACQUIRE_TIMEOUT_MS = Long.getLong("bank.db.pool.acquireTimeoutMs", 5_000);
+    static final long DB_POOL_IDLE_TIMEOUT_MS = Long.getLong("bank.db.pool.idleTimeoutMs", 600_000);
+    static final long DB_POOL_VALIDATION_INTERVAL_MS = Long.getLong("bank.db.pool.validationIntervalMs", 1_000);
+    static final long DB_POOL_HOUSEKEEPING_INTERVAL_MS = Long.getLong("bank.db.pool.housekeepingIntervalMs", 30_000);
+    static final boolean DB_MIGRATE = Boolean.parseBoolean(System.getProperty("bank.db.migrate", "true"));
+
+    /** Route deposits and withdrawals through {@link TransactionJournal} group commit. */
+    static final boolean JOURNAL_ENABLED = Boolean.getBoolean("bank.journal.enabled");
+    static final int JOURNAL_BATCH_SIZE = Integer.getInteger("bank.journal.batchSize", 64);
+    static final long JOURNAL_LINGER_MS = Long.getLong("bank.journal.lingerMs", 2);
+
+    // Accounts whose balance is cached in memory; 0 turns the cache off.
+    static final int BALANCE_CACHE_SIZE = Integer.getInteger("bank.balanceCache.size", 10_000);
+
+    // Before listening, the store opens this many connections and caches this many recent balances.
+    static final boolean WARM_START = !"false".equals(System.getProperty("bank.warmup.enabled"));
+    static final int WARMUP_CONNECTIONS = Integer.getInteger("bank.warmup.connections", DB_POOL_MAX_SIZE);
+    static final int WARMUP_BALANCES = Integer.getInteger("bank.warmup.balances", 1_000);
+
+    // BCrypt runs on its own threads; logins beyond the queue are turned away as "server busy".
+    static final int AUTH_THREADS = Integer.getInteger("bank.auth.threads", Runtime.getRuntime().availableProcessors());
+    static final int AUTH_QUEUE = Integer.getInteger("bank.auth.queue", 256);
+
+    // Commands per second per connection and per account, and commands running at once; 0 = no limit.
+    static final double LIMIT_CONNECTION_RATE = Double.parseDouble(System.getProperty("bank.limit.connectionRate", "100"));
+    static final int LIMIT_CONNECTION_BURST = Integer.getInteger("bank.limit.connectionBurst", 50);
+    static final double LIMIT_ACCOUNT_RATE = Double.parseDouble(System.getProperty("bank.limit.accountRate", "500"));
+    static final int LIMIT_ACCOUNT_BURST = Integer.getInteger("bank.limit.accountBurst", 100);
+    static final int LIMIT_MAX_IN_FLIGHT = Integer.getInteger("bank.limit.maxInFlight", 1_024);
+
+    static final long SESSION_TOKEN_TTL_MS = Long.getLong("bank.session.tokenTtlMs", 15 * 60_000);
+    static final int SESSION_MAX_TOKENS = Integer.getInteger("bank.session.maxTokens", 100_000);
+
+    // Log records below this level are skipped; the ring holds records waiting for the writer thread.
+    static final String LOG_LEVEL = System.getProperty("bank.log.level", "INFO");
+    static final int LOG_BUFFER_SIZE = Integer.getInteger("bank.log.bufferSize", 8192);
+
+    // Metrics scrape endpoint on 127.0.0.1 (0 turns it off) and how often they are printed (0 = never).
+    static final int METRICS_PORT = Integer.getInteger("bank.metrics.port", 9400);
+    static final long METRICS_LOG_INTERVAL_MS = Long.getLong("bank.metrics.logIntervalMs", 60_000);
+
+    private ServerConfig() {
+    }
+}
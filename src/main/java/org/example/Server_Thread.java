@@ -1,145 +1,87 @@
 package org.example;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.*;
-import java.sql.*;
-import java.util.*;
+import java.util.concurrent.ThreadFactory;
+import jdk.net.ExtendedSocketOptions;
 
 public class Server_Thread {
     public static void main(String[] args) throws IOException {
-        ServerSocket ss = new ServerSocket(4000);
-        System.out.println("Banking Server started on port 4000");
-
-        while (true) {
-            Socket clientSocket = ss.accept();
-            System.out.println("New client connected: " + clientSocket);
-            ClientHandler clientHandler = new ClientHandler(clientSocket);
-            clientHandler.start();
+        BankStore store = Database.store();
+        Log.info("store_open").put("store", ServerConfig.STORE).log();
+        if (store instanceof JdbcBankStore jdbc && ServerConfig.DB_MIGRATE && !Migrations.apply(jdbc.pool())) {
+            Log.error("migration_failed").put("message", "Schema migration failed, server not started").log();
+            Log.flush(1_000);
+            return;
         }
-    }
-}
-
-class ClientHandler extends Thread {
-
-    private final Socket clientSocket;
-    private DataInputStream input;
-    private DataOutputStream output;
-    private boolean isAuthenticated = false;
-    private String accountNumber = null;
-
-    public ClientHandler(Socket socket) {
-        this.clientSocket = socket;
-    }
-
-    public void run() {
-        try {
-            input = new DataInputStream(clientSocket.getInputStream());
-            output = new DataOutputStream(clientSocket.getOutputStream());
-
-            while (true) {
-//                output.writeUTF("Enter command (REGISTER, LOGIN, DEPOSIT, WITHDRAW, BALANCE, TRANSACTIONS, EXIT):");
-                String received = input.readUTF();
-                String[] parts = received.split(":");
-                String command = parts[0].toUpperCase();
-
-                switch (command) {
-                    case "REGISTER":
-                        handleRegistration(parts);
-                        break;
-                    case "LOGIN":
-                        handleLogin(parts);
-                        break;
-                    case "DEPOSIT":
-                        handleDeposit(parts);
-                        break;
-                    case "WITHDRAW":
-                        handleWithdraw(parts);
-                        break;
-                    case "BALANCE":
-                        handleBalance();
-                        break;
-                    case "TRANSACTIONS":
-                        handleTransactions();
-                        break;
-                    case "EXIT":
-                        clientSocket.close();
-                        return;
-                    default:
-                        output.writeUTF("Invalid command");
-                }
-            }
-        } catch (IOException e) {
-            System.out.println("Client disconnected: " + clientSocket);
+        Log.info("store_ready").put("uptime_ms", ManagementFactory.getRuntimeMXBean().getUptime()).log();
+        if (ServerConfig.WARM_START) {
+            long warmStart = System.nanoTime();
+            store.warmUp();
+            Log.info("warm_start").put("warm_up_ms", (System.nanoTime() - warmStart) / 1_000_000)
+                    .put("uptime_ms", ManagementFactory.getRuntimeMXBean().getUptime()).log();
         }
-    }
-
-    private void handleRegistration(String[] parts) throws IOException {
-        if (parts.length != 3) {
-            output.writeUTF("ERROR: Usage - REGISTER:username:password");
+        Metrics.gauge("bank_log_dropped_total", Log::dropped);
+        Metrics.gauge("bank_account_shard_max_queued", Session.accounts()::getMaxQueued);
+        Metrics.gauge("bank_session_tokens_live", Session.tokens()::getLive);
+        Metrics.start(ServerConfig.METRICS_PORT, ServerConfig.METRICS_LOG_INTERVAL_MS);
+        ConnectionReaper.start(ServerConfig.IDLE_TIMEOUT_MS + ServerConfig.READ_TIMEOUT_MS,
+                ServerConfig.REAPER_INTERVAL_MS);
+
+        if ("nio".equals(ServerConfig.SERVER_MODE)) {
+            new NioServer(ServerConfig.SERVER_PORT, ServerConfig.NIO_EVENT_LOOPS, ServerConfig.NIO_WORKERS,
+                    ServerConfig.MAX_SESSIONS).run(ServerConfig.ACCEPT_BACKLOG);
             return;
         }
-        boolean success = Database.registerUser(parts[1], parts[2]);
-        output.writeUTF(success ? "SUCCESS: Registration successful" : "ERROR: Registration failed");
-    }
 
-    private void handleLogin(String[] parts) throws IOException {
-        if (parts.length != 3) {
-            output.writeUTF("ERROR: Usage - LOGIN:username:password");
-            return;
-        }
-        Map<String, String> result = Database.loginUser(parts[1], parts[2]);
-        if ("SUCCESS".equals(result.get("status"))) {
-            isAuthenticated = true;
-            accountNumber = result.get("accountNumber");
-            output.writeUTF("SUCCESS: Logged in. Account: " + accountNumber);
-        } else {
-            output.writeUTF("ERROR: " + result.get("message"));
-        }
-    }
+        ConnectionDispatcher dispatcher = new ConnectionDispatcher(sessionThreads(ServerConfig.SERVER_MODE),
+                ServerConfig.MAX_SESSIONS, ServerConfig.MAX_QUEUED_CONNECTIONS);
+        Metrics.gauge("bank_connections_queued", dispatcher::queued);
+        ServerSocket ss = new ServerSocket(ServerConfig.SERVER_PORT, ServerConfig.ACCEPT_BACKLOG);
+        Drain.install(ss);
+        Log.info("server_started").put("port", ServerConfig.SERVER_PORT).put("mode", ServerConfig.SERVER_MODE)
+                .put("max_sessions", ServerConfig.MAX_SESSIONS).put("max_queued", ServerConfig.MAX_QUEUED_CONNECTIONS)
+                .log();
 
-    private void handleDeposit(String[] parts) throws IOException {
-        if (!checkAuth()) return;
-        try {
-            double amount = Double.parseDouble(parts[1]);
-            if (Database.deposit(accountNumber, amount)) {
-                output.writeUTF("SUCCESS: Deposited " + amount);
-            } else {
-                output.writeUTF("ERROR: Deposit failed");
+        while (true) {
+            Socket clientSocket;
+            try {
+                clientSocket = ss.accept();
+            } catch (SocketException e) {
+                if (Admission.isClosing()) return;
+                throw e;
             }
-        } catch (Exception e) {
-            output.writeUTF("ERROR: Invalid amount");
+            Log.info("connect").put("remote", clientSocket.getRemoteSocketAddress()).log();
+            Metrics.CONNECTIONS.increment();
+            tune(clientSocket);
+            dispatcher.dispatch(clientSocket);
         }
     }
 
-    private void handleWithdraw(String[] parts) throws IOException {
-        if (!checkAuth()) return;
+    /** Applies the {@code bank.server.tcpNoDelay} and keep-alive settings to an accepted socket. */
+    static void tune(Socket socket) {
         try {
-            double amount = Double.parseDouble(parts[1]);
-            if (Database.withdraw(accountNumber, amount)) {
-                output.writeUTF("SUCCESS: Withdrew " + amount);
-            } else {
-                output.writeUTF("ERROR: Withdrawal failed");
+            socket.setTcpNoDelay(ServerConfig.TCP_NO_DELAY);
+            socket.setKeepAlive(ServerConfig.TCP_KEEP_ALIVE);
+            if (ServerConfig.TCP_KEEP_ALIVE && socket.supportedOptions().contains(ExtendedSocketOptions.TCP_KEEPIDLE)) {
+                socket.setOption(ExtendedSocketOptions.TCP_KEEPIDLE, ServerConfig.TCP_KEEP_IDLE_SECONDS);
+                socket.setOption(ExtendedSocketOptions.TCP_KEEPINTERVAL, ServerConfig.TCP_KEEP_INTERVAL_SECONDS);
+                socket.setOption(ExtendedSocketOptions.TCP_KEEPCOUNT, ServerConfig.TCP_KEEP_COUNT);
             }
-        } catch (Exception e) {
-            output.writeUTF("ERROR: Invalid amount");
+        } catch (IOException e) {
+            // The connection is probably already gone; its handler will find out.
         }
     }
 
-    private void handleBalance() throws IOException {
-        if (!checkAuth()) return;
-        double balance = Database.getBalance(accountNumber);
-        output.writeUTF("SUCCESS: Current balance: " + balance);
-    }
-
-    private void handleTransactions() throws IOException {
-        if (!checkAuth()) return;
-        List<String> transactions = Database.getTransactions(accountNumber);
-        output.writeUTF("TRANSACTIONS:\n" + String.join("\n", transactions));
-    }
-
-    private boolean checkAuth() throws IOException {
-        if (!isAuthenticated) output.writeUTF("ERROR: Authentication required");
-        return isAuthenticated;
-//        #heleo
+    static ThreadFactory sessionThreads(String mode) {
+        switch (mode) {
+            case "platform":
+                return Thread.ofPlatform().name("client-", 0).factory();
+            case "virtual":
+                return Thread.ofVirtual().name("client-", 0).factory();
+            default:
+                throw new IllegalArgumentException("Unknown bank.server.mode: " + mode);
+        }
     }
-}
\ No newline at end of file
+}
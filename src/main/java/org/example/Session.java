@@ -0,0 +1,372 @@
+package org.example;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-connection state and command handling, independent of how frames reach the server. Both
+ * the thread-per-connection {@link ClientHandler} and the {@link NioServer} feed it one legacy
+ * command string at a time; {@link BinaryCommands} calls the typed operations directly.
+ * Deposits, withdrawals and balance reads run on the account's shard of {@link #accounts()}, so
+ * they are applied in order even when several connections share one account.
+ */
+class Session {
+    /** Where replies for this session go. */
+    interface Replies {
+        void send(String message) throws IOException;
+    }
+
+    private static final int HISTORY_ROWS_PER_FRAME = 100;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final SessionTokens TOKENS =
+            new SessionTokens(ServerConfig.SESSION_TOKEN_TTL_MS, ServerConfig.SESSION_MAX_TOKENS);
+    private static final KeyedExecutor ACCOUNTS = new KeyedExecutor(ServerConfig.ACCOUNT_SHARDS, "account");
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id = NEXT_ID.incrementAndGet();
+    private final TokenBucket limit = Admission.connectionLimit();
+    private Account account = null;
+    // The resume token this session was issued or resumed with; revoked on EXIT.
+    private String token = null;
+
+    static SessionTokens tokens() {
+        return TOKENS;
+    }
+
+    /** The account shards; balance changes and reads for one account run there in order. */
+    static KeyedExecutor accounts() {
+        return ACCOUNTS;
+    }
+
+    /** Identifies this session in the log. */
+    long id() {
+        return id;
+    }
+
+    /**
+     * Asks {@link Admission} to run one command for this connection and account. When it returns
+     * {@link Admission#ADMITTED} the caller must call {@link Admission#release()} afterwards.
+     */
+    int admit() {
+        return Admission.admit(limit, account);
+    }
+
+    boolean isAuthenticated() {
+        return account != null;
+    }
+
+    Account account() {
+        return account;
+    }
+
+    boolean register(String username, String password) throws AuthPool.BusyException {
+        return Database.registerUser(username, password);
+    }
+
+    /** Logs in; on success the session is bound to the user's account. Returns {@link Database#loginUser}'s result. */
+    Map<String, String> login(String username, String password) {
+        Map<String, String> result = Database.loginUser(username, password);
+        if ("SUCCESS".equals(result.get("status"))) {
+            revokeToken();
+            account = new Account(Integer.parseInt(result.get("accountId")), result.get("accountNumber"));
+        }
+        return result;
+    }
+
+    /**
+     * Issues a resume token for the logged-in account, revoking the one this session held before.
+     * Returns null if no token could be issued.
+     */
+    String issueToken() {
+        revokeToken();
+        token = TOKENS.issue(account);
+        return token;
+    }
+
+    /** Binds the session to the account {@code token} was issued for. Returns false if it is invalid or expired. */
+    boolean resume(String token) {
+        Account resumed = TOKENS.resume(token);
+        if (resumed == null) return false;
+        if (!token.equals(this.token)) revokeToken();
+        account = resumed;
+        this.token = token;
+        return true;
+    }
+
+    /** The client is leaving for good: its resume token stops working. */
+    void exit() {
+        revokeToken();
+    }
+
+    private void revokeToken() {
+        if (token != null) TOKENS.revoke(token);
+        token = null;
+    }
+
+    /** Amounts and balances are {@link Money} minor units. */
+    boolean deposit(long amount) {
+        return depositAsync(amount).join();
+    }
+
+    boolean withdraw(long amount) {
+        return withdrawAsync(amount).join();
+    }
+
+    /**
+     * Queues a deposit on the account's shard and returns a future of whether it was applied.
+     * The shard only starts the change; with group commit, the future completes after the
+     * batch commits.
+     */
+    CompletableFuture<Boolean> depositAsync(long amount) {
+        Account target = account;
+        return ACCOUNTS.call(target.id(), () -> Database.depositAsync(target, amount));
+    }
+
+    CompletableFuture<Boolean> withdrawAsync(long amount) {
+        Account target = account;
+        return ACCOUNTS.call(target.id(), () -> Database.withdrawAsync(target, amount));
+    }
+
+    long balance() {
+        Account target = account;
+        return ACCOUNTS.call(target.id(), () -> Database.getBalance(target));
+    }
+
+    List<TransactionRecord> transactions() {
+        return Database.getTransactionHistory(account);
+    }
+
+    /** Streams one page of history; see {@link Database#streamTransactions}. */
+    HistoryQuery history(HistoryQuery query, BankStore.TransactionVisitor visitor) throws SQLException, IOException {
+        return Database.streamTransactions(account, query, visitor);
+    }
+
+    /** Runs one command. Returns false once the client has asked to close the connection. */
+    boolean handle(String received, Replies out) throws IOException {
+        String[] parts = received.split(":");
+        String command = parts[0].toUpperCase();
+        // EXIT is never refused, so a throttled client can still revoke its token and leave.
+        boolean limited = !"EXIT".equals(command);
+        if (limited) {
+            int admission = admit();
+            if (admission != Admission.ADMITTED) {
+                out.send("BUSY: " + Admission.reason(admission));
+                return true;
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            return dispatch(command, parts, out);
+        } finally {
+            if (limited) Admission.release();
+            commandDone(command, "legacy", System.nanoTime() - start);
+        }
+    }
+
+    /** Records one finished command in the metrics and as a {@code command} log record. */
+    void commandDone(String command, String protocol, long nanos) {
+        Metrics.command(command).record(nanos);
+        Account current = account;
+        Log.info("command").put("session", id).put("account", current == null ? 0 : current.id())
+                .put("proto", protocol).put("cmd", Metrics.commandLabel(command)).put("latency_us", nanos / 1_000)
+                .log();
+    }
+
+    private boolean dispatch(String command, String[] parts, Replies out) throws IOException {
+        switch (command) {
+            case "REGISTER":
+                handleRegistration(parts, out);
+                break;
+            case "LOGIN":
+                handleLogin(parts, out);
+                break;
+            case "DEPOSIT":
+                handleDeposit(parts, out);
+                break;
+            case "WITHDRAW":
+                handleWithdraw(parts, out);
+                break;
+            case "BALANCE":
+                handleBalance(out);
+                break;
+            case "TRANSACTIONS":
+                handleTransactions(out);
+                break;
+            case "HISTORY":
+                handleHistory(parts, out);
+                break;
+            case "TOKEN":
+                handleToken(out);
+                break;
+            case "RESUME":
+                handleResume(parts, out);
+                break;
+            case "EXIT":
+                exit();
+                return false;
+            default:
+                Metrics.error("bad_request");
+                out.send("Invalid command");
+        }
+        return true;
+    }
+
+    private void handleRegistration(String[] parts, Replies out) throws IOException {
+        if (parts.length != 3) {
+            out.send("ERROR: Usage - REGISTER:username:password");
+            return;
+        }
+        boolean success;
+        try {
+            success = register(parts[1], parts[2]);
+        } catch (AuthPool.BusyException e) {
+            out.send("BUSY: " + e.getMessage());
+            return;
+        }
+        out.send(success ? "SUCCESS: Registration successful" : "ERROR: Registration failed");
+    }
+
+    private void handleLogin(String[] parts, Replies out) throws IOException {
+        if (parts.length != 3) {
+            out.send("ERROR: Usage - LOGIN:username:password");
+            return;
+        }
+        Map<String, String> result = login(parts[1], parts[2]);
+        if ("SUCCESS".equals(result.get("status"))) {
+            out.send("SUCCESS: Logged in. Account: " + account.number());
+        } else {
+            out.send(("BUSY".equals(result.get("status")) ? "BUSY: " : "ERROR: ") + result.get("message"));
+        }
+    }
+
+    private void handleToken(Replies out) throws IOException {
+        if (!checkAuth(out)) return;
+        String issued = issueToken();
+        out.send(issued != null ? "TOKEN:" + issued : "ERROR: Server busy, try again later");
+    }
+
+    private void handleResume(String[] parts, Replies out) throws IOException {
+        if (parts.length != 2) {
+            out.send("ERROR: Usage - RESUME:token");
+            return;
+        }
+        if (resume(parts[1])) {
+            out.send("SUCCESS: Logged in. Account: " + account.number());
+            // The presented token is spent: hand out a fresh one, as protocol v2 does.
+            handleToken(out);
+        } else {
+            out.send("ERROR: Invalid or expired token");
+        }
+    }
+
+    private void handleDeposit(String[] parts, Replies out) throws IOException {
+        if (!checkAuth(out)) return;
+        long amount = parts.length > 1 ? Money.parse(parts[1].trim()) : Money.INVALID;
+        if (amount == Money.INVALID) {
+            out.send("ERROR: Invalid amount");
+        } else if (deposit(amount)) {
+            out.send("SUCCESS: Deposited " + Money.format(amount));
+        } else {
+            out.send("ERROR: Deposit failed");
+        }
+    }
+
+    private void handleWithdraw(String[] parts, Replies out) throws IOException {
+        if (!checkAuth(out)) return;
+        long amount = parts.length > 1 ? Money.parse(parts[1].trim()) : Money.INVALID;
+        if (amount == Money.INVALID) {
+            out.send("ERROR: Invalid amount");
+        } else if (withdraw(amount)) {
+            out.send("SUCCESS: Withdrew " + Money.format(amount));
+        } else {
+            out.send("ERROR: Withdrawal failed");
+        }
+    }
+
+    private void handleBalance(Replies out) throws IOException {
+        if (!checkAuth(out)) return;
+        long balance = balance();
+        out.send(balance < 0 ? "ERROR: Balance unavailable" : "SUCCESS: Current balance: " + Money.format(balance));
+    }
+
+    private void handleTransactions(Replies out) throws IOException {
+        if (!checkAuth(out)) return;
+        List<String> transactions = Database.getTransactions(account);
+        // One writeUTF frame holds at most 64 KB: keep the newest rows that fit and say so.
+        String header = "TRANSACTIONS:\n";
+        String omitted = "\n(older transactions omitted, use HISTORY)";
+        int budget = Utf8Frames.MAX_PAYLOAD - Utf8Frames.encodedLength(header) - Utf8Frames.encodedLength(omitted);
+        int first = transactions.size();
+        while (first > 0 && (budget -= Utf8Frames.encodedLength(transactions.get(first - 1)) + 1) >= 0) first--;
+        String rows = String.join("\n", transactions.subList(first, transactions.size()));
+        out.send(header + rows + (first > 0 ? omitted : ""));
+    }
+
+    /**
+     * {@code HISTORY:pageSize[:cursor[:fromDate[:toDate]]]} with dates as {@code yyyy-MM-dd}, both
+     * inclusive. Replies with {@code HISTORY:} frames of up to 100 {@code timestamp,type,amount}
+     * lines each, then {@code HISTORY_END:} followed by the cursor for the next page, or nothing
+     * if this was the last page.
+     */
+    private void handleHistory(String[] parts, Replies out) throws IOException {
+        if (!checkAuth(out)) return;
+        HistoryQuery query;
+        try {
+            int pageSize = parts.length > 1 && !parts[1].isEmpty() ? Integer.parseInt(parts[1]) : 100;
+            long from = parts.length > 3 && !parts[3].isEmpty() ? Date.valueOf(parts[3]).getTime() : 0;
+            long to = parts.length > 4 && !parts[4].isEmpty() ? Date.valueOf(parts[4]).getTime() + DAY_MILLIS : 0;
+            query = HistoryQuery.firstPage(pageSize, from, to).withCursor(parts.length > 2 ? parts[2] : "");
+        } catch (IllegalArgumentException e) {
+            out.send("ERROR: Usage - HISTORY:pageSize[:cursor[:fromDate[:toDate]]]");
+            return;
+        }
+
+        LegacyHistoryWriter writer = new LegacyHistoryWriter(out);
+        HistoryQuery next;
+        try {
+            next = history(query, writer);
+        } catch (SQLException e) {
+            Metrics.error("sql");
+            out.send("ERROR: History unavailable");
+            return;
+        }
+        writer.flush();
+        out.send("HISTORY_END:" + (next == null ? "" : next.cursor()));
+    }
+
+    private static final class LegacyHistoryWriter implements BankStore.TransactionVisitor {
+        private final Replies out;
+        private final StringBuilder chunk = new StringBuilder("HISTORY:");
+        private int rows;
+
+        LegacyHistoryWriter(Replies out) {
+            this.out = out;
+        }
+
+        @Override
+        public void row(long id, String type, long amount, Timestamp timestamp) throws IOException {
+            if (rows > 0) chunk.append('\n');
+            Money.appendTo(chunk.append(timestamp).append(',').append(type).append(','), amount);
+            if (++rows == HISTORY_ROWS_PER_FRAME) flush();
+        }
+
+        void flush() throws IOException {
+            if (rows == 0) return;
+            out.send(chunk.toString());
+            chunk.setLength("HISTORY:".length());
+            rows = 0;
+        }
+    }
+
+    private boolean checkAuth(Replies out) throws IOException {
+        if (!isAuthenticated()) out.send("ERROR: Authentication required");
+        return isAuthenticated();
+//        #heleo
+    }
+}
@@ -0,0 +1,157 @@
+package org.example;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test for the server's session modes. Start the server in the mode under test, then run
+ * <pre>
+ *   java -cp ... org.example.SessionLoadTest [host] [port] [sessions] [username] [password] [activeClients] [seconds]
+ * </pre>
+ * Phase 1 opens {@code sessions} connections and counts how many get a reply within five seconds
+ * and stay open, i.e. how many concurrent sessions the server actually holds. Phase 2 keeps
+ * those connections open while {@code activeClients} extra connections log in as the given user
+ * and issue {@code BALANCE} for {@code seconds}, and reports throughput and p50/p99/max latency.
+ * Only successful replies count towards throughput and latency; {@code BUSY} and {@code ERROR}
+ * replies are counted separately. Start the server with {@code -Dbank.limit.connectionRate=0
+ * -Dbank.limit.accountRate=0}, or the default rate limits turn most of phase 2 into {@code BUSY}.
+ */
+public class SessionLoadTest {
+    private static final int REPLY_TIMEOUT_MS = 5_000;
+
+    private static final LongAdder BUSY = new LongAdder();
+    private static final LongAdder ERRORS = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        int sessions = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+        String username = args.length > 3 ? args[3] : "loadtest";
+        String password = args.length > 4 ? args[4] : "loadtest";
+        int activeClients = args.length > 5 ? Integer.parseInt(args[5]) : 32;
+        int seconds = args.length > 6 ? Integer.parseInt(args[6]) : 30;
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Socket> held = holdSessions(clients, host, port, sessions);
+            System.out.printf("Sessions held: %d of %d%n", held.size(), sessions);
+
+            long[] latencies = measureBalance(clients, host, port, username, password, activeClients, seconds);
+            if (BUSY.sum() > 0 || ERRORS.sum() > 0) {
+                System.out.printf("BALANCE: %d BUSY and %d ERROR replies left out of the figures below%n",
+                        BUSY.sum(), ERRORS.sum());
+            }
+            if (latencies.length == 0) {
+                System.out.println("BALANCE: no successful requests (check the credentials and that the user exists)");
+            } else {
+                System.out.printf("BALANCE: %d requests, %.0f req/s, p50=%.3f ms, p99=%.3f ms, max=%.3f ms%n",
+                        latencies.length, latencies.length / (double) seconds,
+                        percentile(latencies, 50), percentile(latencies, 99),
+                        latencies[latencies.length - 1] / 1_000_000.0);
+            }
+
+            for (Socket socket : held) socket.close();
+        }
+    }
+
+    private static List<Socket> holdSessions(ExecutorService clients, String host, int port, int sessions)
+            throws InterruptedException {
+        AtomicInteger refused = new AtomicInteger();
+        List<Future<Socket>> attempts = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            attempts.add(clients.submit(() -> {
+                Socket socket = connect(host, port);
+                try {
+                    // Any command answered by a running session proves the session is live;
+                    // queued connections time out here, rejected ones get a busy reply.
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    out.writeUTF("BALANCE");
+                    String reply = in.readUTF();
+                    if (reply.startsWith("BUSY") || reply.contains("busy")) throw new IOException(reply);
+                    return socket;
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+            }));
+        }
+
+        List<Socket> held = new ArrayList<>();
+        for (Future<Socket> attempt : attempts) {
+            try {
+                held.add(attempt.get());
+            } catch (Exception e) {
+                refused.incrementAndGet();
+            }
+        }
+        if (refused.get() > 0) System.out.printf("Sessions refused, queued or timed out: %d%n", refused.get());
+        return held;
+    }
+
+    private static long[] measureBalance(ExecutorService clients, String host, int port, String username,
+                                         String password, int activeClients, int seconds) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<long[]>> results = new ArrayList<>(activeClients);
+        for (int i = 0; i < activeClients; i++) {
+            results.add(clients.submit(() -> {
+                try (Socket socket = connect(host, port)) {
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    out.writeUTF("LOGIN:" + username + ":" + password);
+                    if (!in.readUTF().startsWith("SUCCESS")) return new long[0];
+
+                    long[] samples = new long[1024];
+                    int n = 0;
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        out.writeUTF("BALANCE");
+                        String reply = in.readUTF();
+                        long elapsed = System.nanoTime() - start;
+                        if (!reply.startsWith("SUCCESS")) {
+                            (reply.startsWith("BUSY") ? BUSY : ERRORS).increment();
+                            continue;
+                        }
+                        if (n == samples.length) samples = Arrays.copyOf(samples, n * 2);
+                        samples[n++] = elapsed;
+                    }
+                    out.writeUTF("EXIT");
+                    return Arrays.copyOf(samples, n);
+                }
+            }));
+        }
+
+        long[] all = new long[0];
+        for (Future<long[]> result : results) {
+            long[] samples = result.get();
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + samples.length);
+            System.arraycopy(samples, 0, all, offset, samples.length);
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    private static Socket connect(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), REPLY_TIMEOUT_MS);
+        socket.setSoTimeout(REPLY_TIMEOUT_MS);
+        return socket;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000.0;
+    }
+}
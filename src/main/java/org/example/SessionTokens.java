@@ -0,0 +1,122 @@
+package org.example;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resume tokens: after a login, a client can ask for a token and later present it on a new
+ * connection. The new connection is then bound to the same account without another password
+ * check. Tokens are 256 random bits and expire {@code ttlMillis} after they are issued. A client
+ * that exits revokes its token. Expired tokens are refused on use, and a background sweep drops
+ * them from memory.
+ */
+final class SessionTokens {
+    private record Grant(Account account, long expiresAt) {
+        boolean expired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, Grant> grants = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxTokens;
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder revoked = new LongAdder();
+
+    SessionTokens(long ttlMillis, int maxTokens) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxTokens = maxTokens;
+        long sweepMillis = Math.max(1_000, Math.min(ttlMillis / 4, 60_000));
+        Thread.ofPlatform().name("session-token-sweeper").daemon().start(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(sweepMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                sweep();
+            }
+        });
+    }
+
+    /** Issues a token for {@code account}, or returns null if the store is full of live tokens. */
+    String issue(Account account) {
+        if (grants.size() >= maxTokens) {
+            sweep();
+            if (grants.size() >= maxTokens) return null;
+        }
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        grants.put(token, new Grant(account, System.nanoTime() + ttlNanos));
+        issued.increment();
+        return token;
+    }
+
+    /** Returns the account {@code token} was issued for, or null if it is unknown or expired. */
+    Account resume(String token) {
+        Grant grant = grants.get(token);
+        if (grant == null) {
+            refused.increment();
+            return null;
+        }
+        if (grant.expired(System.nanoTime())) {
+            if (grants.remove(token, grant)) expired.increment();
+            refused.increment();
+            return null;
+        }
+        resumed.increment();
+        return grant.account();
+    }
+
+    void revoke(String token) {
+        if (grants.remove(token) != null) revoked.increment();
+    }
+
+    void sweep() {
+        long now = System.nanoTime();
+        grants.entrySet().removeIf(entry -> {
+            if (!entry.getValue().expired(now)) return false;
+            expired.increment();
+            return true;
+        });
+    }
+
+    int getLive() {
+        return grants.size();
+    }
+
+    long getIssued() {
+        return issued.sum();
+    }
+
+    long getResumed() {
+        return resumed.sum();
+    }
+
+    long getRefused() {
+        return refused.sum();
+    }
+
+    long getExpired() {
+        return expired.sum();
+    }
+
+    long getRevoked() {
+        return revoked.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("tokens live=%d/%d issued=%d resumed=%d refused=%d expired=%d revoked=%d",
+                getLive(), maxTokens, getIssued(), getResumed(), getRefused(), getExpired(), getRevoked());
+    }
+}
@@ -0,0 +1,31 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket holding up to {@code burst} tokens, refilled at {@code ratePerSecond}. It is kept
+ * as one number, the time at which the bucket will be full again (GCRA's "theoretical arrival
+ * time"), so taking a token is a compare-and-set and nothing has to refill it on a timer.
+ */
+final class TokenBucket {
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong fullAt;
+
+    TokenBucket(double ratePerSecond, int burst) {
+        interval = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        tolerance = interval * Math.max(0, burst - 1);
+        fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /** Takes a token if there is one. Never blocks. */
+    boolean tryTake() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            long start = current - now > 0 ? current : now;
+            if (start - now > tolerance) return false;
+            if (fullAt.compareAndSet(current, start + interval)) return true;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Group commit for deposits and withdrawals. Callers queue a balance change and get a future of
+ * its outcome, which they need not wait on. A single writer thread takes up to {@code batchSize} queued changes, waiting
+ * at most {@code lingerMillis} after the first one for more. It applies them in one
+ * transaction: the conditional balance updates as one JDBC batch, in arrival order, then one
+ * multi-row insert into {@code transactions} for the ones that applied. Each future completes
+ * only after that commit, so a client's {@code SUCCESS} means the change is durable. The whole
+ * batch shares a single log flush.
+ */
+class TransactionJournal {
+    // One statement shape for both directions keeps the batch in arrival order; deposits pass a
+    // positive delta and always satisfy the guard. Amounts are minor units, scaled in SQL.
+    private static final String UPDATE =
+            "UPDATE accounts SET balance = balance + ? / 100 WHERE account_id = ? AND balance + ? / 100 >= 0";
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final BlockingQueue<Entry> queue;
+    private final Thread writer;
+    // Submitters hold the read lock from checking running until their entry is queued, so once
+    // close() has flipped running under the write lock, nothing can join the queue behind the
+    // writer's last look at it.
+    private final ReadWriteLock state = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+    private final LatencyHistogram commits = new LatencyHistogram();
+
+    TransactionJournal(ConnectionPool pool, int batchSize, long lingerMillis) {
+        this.pool = pool;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.queue = new ArrayBlockingQueue<>(this.batchSize * 64);
+        this.writer = Thread.ofPlatform().name("journal-writer").daemon().start(this::writeLoop);
+    }
+
+    /** Queues a change and returns a future that completes with whether it was committed. */
+    CompletableFuture<Boolean> submit(Account account, String type, long amount) {
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        long delta = "WITHDRAW".equals(type) ? -amount : amount;
+        state.readLock().lock();
+        try {
+            if (!running) {
+                done.complete(false);
+            } else {
+                queue.put(new Entry(account, type, amount, delta, done));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done.complete(false);
+        } finally {
+            state.readLock().unlock();
+        }
+        return done;
+    }
+
+    /** Stops taking new changes and waits for everything already queued to be committed. */
+    void shutdown() throws InterruptedException {
+        close();
+        writer.join();
+    }
+
+    private void close() {
+        state.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            state.writeLock().unlock();
+        }
+    }
+
+    int getQueued() {
+        return queue.size();
+    }
+
+    long getBatches() {
+        return batches.sum();
+    }
+
+    long getRecords() {
+        return records.sum();
+    }
+
+    long getFailedBatches() {
+        return failedBatches.sum();
+    }
+
+    double getAverageBatchSize() {
+        long n = batches.sum();
+        return n == 0 ? 0 : records.sum() / (double) n;
+    }
+
+    long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    double getAverageCommitMillis() {
+        long n = batches.sum();
+        return n == 0 ? 0 : commitNanos.sum() / 1_000_000.0 / n;
+    }
+
+    double getMaxCommitMillis() {
+        return maxCommitNanos.get() / 1_000_000.0;
+    }
+
+    /** How long each committed batch took, from taking a connection to the commit. */
+    LatencyHistogram commitTimes() {
+        return commits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("journal queued=%d batches=%d records=%d failedBatches=%d avgBatch=%.1f maxBatch=%d "
+                        + "avgCommitMs=%.3f maxCommitMs=%.3f",
+                getQueued(), getBatches(), getRecords(), getFailedBatches(), getAverageBatchSize(),
+                getMaxBatchSize(), getAverageCommitMillis(), getMaxCommitMillis());
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Entry next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                close();
+            } finally {
+                for (Entry entry : batch) entry.done.complete(false);
+                batch.clear();
+            }
+        }
+        // Nothing can be queued after close(); this just makes sure no caller is ever left waiting.
+        for (Entry entry; (entry = queue.poll()) != null; ) entry.done.complete(false);
+    }
+
+    private void commit(List<Entry> batch) {
+        long start = System.nanoTime();
+        boolean[] applied = new boolean[batch.size()];
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            int appliedCount = 0;
+            try (PreparedStatement update = conn.prepareStatement(UPDATE)) {
+                for (Entry entry : batch) {
+                    update.setLong(1, entry.delta);
+                    update.setInt(2, entry.account.id());
+                    update.setLong(3, entry.delta);
+                    update.addBatch();
+                }
+                int[] counts = update.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    applied[i] = counts[i] == 1;
+                    if (applied[i]) appliedCount++;
+                }
+            }
+
+            if (appliedCount > 0) {
+                StringBuilder sql = new StringBuilder("INSERT INTO transactions (account_id, type, amount) VALUES ");
+                for (int i = 0; i < appliedCount; i++) sql.append(i == 0 ? "(?, ?, ? / 100)" : ", (?, ?, ? / 100)");
+                try (PreparedStatement insert = conn.prepareStatement(sql.toString())) {
+                    int p = 1;
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (!applied[i]) continue;
+                        Entry entry = batch.get(i);
+                        insert.setInt(p++, entry.account.id());
+                        insert.setString(p++, entry.type);
+                        insert.setLong(p++, entry.amount);
+                    }
+                    if (insert.executeUpdate() != appliedCount) throw new SQLException("journal insert was incomplete");
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            Metrics.error("sql");
+            failedBatches.increment();
+            Log.error("journal_batch_failed").put("changes", batch.size()).thrown(e).log();
+            return;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        batches.increment();
+        records.add(batch.size());
+        maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+        commitNanos.add(elapsed);
+        maxCommitNanos.accumulateAndGet(elapsed, Math::max);
+        commits.record(elapsed);
+        for (int i = 0; i < batch.size(); i++) batch.get(i).done.complete(applied[i]);
+    }
+
+    private record Entry(Account account, String type, long amount, long delta, CompletableFuture<Boolean> done) {
+    }
+}
@@ -0,0 +1,7 @@
+package org.example;
+
+import java.sql.Timestamp;
+
+/** One row of an account's transaction history; {@code amount} is in minor units. */
+public record TransactionRecord(String type, long amount, Timestamp timestamp) {
+}
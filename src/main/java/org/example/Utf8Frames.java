@@ -0,0 +1,89 @@
+package org.example;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding and decoding of the frames {@link java.io.DataOutputStream#writeUTF} and
+ * {@link java.io.DataInputStream#readUTF} exchange: an unsigned 2-byte big-endian length
+ * followed by that many bytes of modified UTF-8.
+ */
+final class Utf8Frames {
+    static final int MAX_PAYLOAD = 65535;
+
+    private Utf8Frames() {
+    }
+
+    /** Returns the complete frame, length prefix included, for {@code s}. */
+    static byte[] encode(String s) throws UTFDataFormatException {
+        int length = encodedLength(s);
+        if (length > MAX_PAYLOAD) throw new UTFDataFormatException("encoded string too long: " + length + " bytes");
+
+        byte[] frame = new byte[length + 2];
+        frame[0] = (byte) (length >>> 8);
+        frame[1] = (byte) length;
+        int pos = 2;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                frame[pos++] = (byte) c;
+            } else if (c <= 0x07FF) {
+                frame[pos++] = (byte) (0xC0 | (c >> 6));
+                frame[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                frame[pos++] = (byte) (0xE0 | (c >> 12));
+                frame[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                frame[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return frame;
+    }
+
+    static int encodedLength(String s) {
+        int length = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length += 1;
+            } else if (c <= 0x07FF) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Decodes {@code length} bytes of modified UTF-8 starting at {@code src}'s position, advancing
+     * it. {@code scratch} must hold at least {@code length} chars.
+     */
+    static String decode(ByteBuffer src, int length, char[] scratch) throws UTFDataFormatException {
+        int end = src.position() + length;
+        int count = 0;
+        while (src.position() < end) {
+            int a = src.get() & 0xFF;
+            if (a < 0x80) {
+                scratch[count++] = (char) a;
+            } else if ((a & 0xE0) == 0xC0) {
+                if (src.position() >= end) throw malformed();
+                int b = src.get() & 0xFF;
+                if ((b & 0xC0) != 0x80) throw malformed();
+                scratch[count++] = (char) (((a & 0x1F) << 6) | (b & 0x3F));
+            } else if ((a & 0xF0) == 0xE0) {
+                if (src.position() + 1 >= end) throw malformed();
+                int b = src.get() & 0xFF;
+                int c = src.get() & 0xFF;
+                if ((b & 0xC0) != 0x80 || (c & 0xC0) != 0x80) throw malformed();
+                scratch[count++] = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+            } else {
+                throw malformed();
+            }
+        }
+        return new String(scratch, 0, count);
+    }
+
+    private static UTFDataFormatException malformed() {
+        return new UTFDataFormatException("malformed input");
+    }
+}
@@ -0,0 +1,160 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Checks that abandoned connections do not pile up in the server. Each mode's server runs as a
+ * child process on a throwaway memory store, with one-second timeouts. Each round opens
+ * {@link #CONNECTIONS} connections. A quarter send a command and close, a quarter send a command
+ * and then go silent, a quarter send half a frame and go silent, and a quarter never send
+ * anything. These are the ways a killed or unplugged client looks from the server. After each
+ * round the test waits out the timeouts and reads the server's thread and open file counts from
+ * {@code /proc}, so it only runs on Linux.
+ * <p>
+ * The first round warms the server up. No later round may leave more than a few threads or files
+ * above the level after round one.
+ */
+@EnabledOnOs(OS.LINUX)
+class ChurnTest {
+    private static final int ROUNDS = 3;
+    private static final int CONNECTIONS = 200;
+    private static final long IDLE_TIMEOUT_MS = 1_000;
+    private static final long READ_TIMEOUT_MS = 500;
+    private static final long REAPER_INTERVAL_MS = 200;
+    private static final int SLACK = 8;
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"platform", "virtual", "nio"})
+    void abandonedConnectionsDoNotLeak(String mode) throws Exception {
+        int port = freePort();
+        Process server = startServer(mode, port);
+        try {
+            awaitPort(port, server);
+            long baseThreads = 0;
+            long baseFiles = 0;
+            for (int round = 1; round <= ROUNDS; round++) {
+                List<Socket> silent = churn(port);
+                Thread.sleep(IDLE_TIMEOUT_MS + READ_TIMEOUT_MS + 5 * REAPER_INTERVAL_MS);
+                long threads = count(server, "task");
+                long files = count(server, "fd");
+                for (Socket socket : silent) socket.close();
+
+                if (round == 1) {
+                    baseThreads = threads;
+                    baseFiles = files;
+                    continue;
+                }
+                assertTrue(threads <= baseThreads + SLACK,
+                        "round " + round + " left " + threads + " threads, " + baseThreads + " after round 1");
+                assertTrue(files <= baseFiles + SLACK,
+                        "round " + round + " left " + files + " files, " + baseFiles + " after round 1");
+            }
+        } finally {
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    // Opens one round of connections and returns the ones left open without a word.
+    private static List<Socket> churn(int port) throws IOException {
+        List<Socket> silent = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            Socket socket = new Socket("localhost", port);
+            switch (i % 4) {
+                case 0 -> {
+                    call(socket, "BALANCE");
+                    socket.close();
+                }
+                case 1 -> {
+                    call(socket, "BALANCE");
+                    silent.add(socket);
+                }
+                case 2 -> {
+                    // A writeUTF header promising ten bytes, and only three of them.
+                    OutputStream out = socket.getOutputStream();
+                    out.write(new byte[]{0, 10, 'B', 'A', 'L'});
+                    out.flush();
+                    silent.add(socket);
+                }
+                default -> silent.add(socket);
+            }
+        }
+        return silent;
+    }
+
+    private static void call(Socket socket, String command) throws IOException {
+        new DataOutputStream(socket.getOutputStream()).writeUTF(command);
+        new DataInputStream(socket.getInputStream()).readUTF();
+    }
+
+    private Process startServer(String mode, int port) throws IOException {
+        List<String> command = new ArrayList<>(List.of(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"),
+                "-Dbank.server.mode=" + mode,
+                "-Dbank.server.port=" + port,
+                "-Dbank.server.idleTimeoutMs=" + IDLE_TIMEOUT_MS,
+                "-Dbank.server.readTimeoutMs=" + READ_TIMEOUT_MS,
+                "-Dbank.server.reaperIntervalMs=" + REAPER_INTERVAL_MS,
+                "-Dbank.limit.connectionRate=0",
+                "-Dbank.metrics.port=0",
+                "-Dbank.metrics.logIntervalMs=0",
+                "-Dbank.log.level=WARN",
+                "-Dbank.store=memory",
+                "-Dbank.store.dir=" + dir.resolve("store"),
+                "-Dbank.store.fsync=never",
+                "-Dbank.store.snapshotIntervalMs=0",
+                "org.example.Server_Thread"));
+        return new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(dir.resolve("server.log").toFile()).start();
+    }
+
+    private static void awaitPort(int port, Process server) throws Exception {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (true) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("localhost", port), 1_000);
+                return;
+            } catch (IOException e) {
+                if (!server.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IOException("Server did not start", e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static long count(Process server, String kind) throws IOException {
+        try (Stream<Path> entries = Files.list(Path.of("/proc", Long.toString(server.pid()), kind))) {
+            return entries.count();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
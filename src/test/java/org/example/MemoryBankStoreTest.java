@@ -0,0 +1,54 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MemoryBankStoreTest {
+    @TempDir
+    Path dir;
+
+    private MemoryBankStore store;
+    private Account account;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new MemoryBankStore(dir, 1 << 20, "never", 0, 0, null);
+        account = store.createAccount("alice", "hash");
+    }
+
+    @AfterEach
+    void close() {
+        store.shutdown();
+    }
+
+    @Test
+    void acceptsDepositsUpToTheLargestBalance() {
+        assertTrue(store.deposit(account, Money.MAX_BALANCE - 1));
+        assertTrue(store.deposit(account, 1));
+        assertEquals(Money.MAX_BALANCE, store.getBalance(account));
+    }
+
+    @Test
+    void rejectsDepositsPastTheLargestBalance() {
+        assertTrue(store.deposit(account, Money.MAX_BALANCE));
+        assertFalse(store.deposit(account, 1));
+        assertEquals(Money.MAX_BALANCE, store.getBalance(account));
+    }
+
+    @Test
+    void rejectsDepositsThatWouldOverflow() {
+        assertFalse(store.deposit(account, Long.MAX_VALUE));
+        assertTrue(store.deposit(account, 100));
+        assertFalse(store.deposit(account, Long.MAX_VALUE - 50));
+        assertEquals(100, store.getBalance(account));
+    }
+}
@@ -0,0 +1,40 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class MoneyTest {
+    // Long.MAX_VALUE / 100 - 1, the largest whole part parse accepts.
+    private static final String MAX_WHOLE = "92233720368547757";
+
+    @Test
+    void parsesAmounts() {
+        assertEquals(1200, Money.parse("12"));
+        assertEquals(1250, Money.parse("12.5"));
+        assertEquals(1205, Money.parse("12.05"));
+        assertEquals(50, Money.parse(".5"));
+    }
+
+    @Test
+    void rejectsMalformedAmounts() {
+        assertEquals(Money.INVALID, Money.parse(""));
+        assertEquals(Money.INVALID, Money.parse("-1"));
+        assertEquals(Money.INVALID, Money.parse("1."));
+        assertEquals(Money.INVALID, Money.parse("1.234"));
+        assertEquals(Money.INVALID, Money.parse("1e3"));
+    }
+
+    @Test
+    void acceptsTheLargestWholePart() {
+        assertEquals(9_223_372_036_854_775_799L, Money.parse(MAX_WHOLE + ".99"));
+    }
+
+    @Test
+    void rejectsWholePartsThatWouldOverflow() {
+        assertEquals(Money.INVALID, Money.parse("92233720368547758"));
+        assertEquals(Money.INVALID, Money.parse("92233720368547759"));
+        assertEquals(Money.INVALID, Money.parse("92233720368547759.99"));
+        assertEquals(Money.INVALID, Money.parse("99999999999999999999"));
+    }
+}
@@ -0,0 +1,91 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Hammers one account with concurrent withdrawals, funded for only half of them, and checks that
+ * none overdraws it or is lost. The jdbc run needs a test database with an existing account,
+ * whose balance it overwrites:
+ * <pre>
+ *   mvn test -Dtest=WithdrawStressTest -Dbank.test.account=accountNumber
+ * </pre>
+ */
+class WithdrawStressTest {
+    private static final int THREADS = 32;
+    private static final int ATTEMPTS = 200;
+    private static final long AMOUNT = 100;
+    private static final long FUNDS = THREADS * ATTEMPTS * AMOUNT / 2;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void memoryStoreNeverOverdraws() throws Exception {
+        MemoryBankStore store = new MemoryBankStore(dir, 1 << 24, "never", 0, 0, null);
+        try {
+            Account account = store.createAccount("alice", "hash");
+            assertTrue(store.deposit(account, FUNDS));
+            int succeeded = hammer(store, account);
+            assertEquals(FUNDS / AMOUNT, succeeded);
+            assertEquals(0, store.getBalance(account));
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    void jdbcStoreNeverOverdraws() throws Exception {
+        String accountNumber = System.getProperty("bank.test.account");
+        assumeTrue(accountNumber != null, "set bank.test.account to run against MySQL");
+        Account account = Database.findAccount(accountNumber);
+        assertNotNull(account, "no such account: " + accountNumber);
+        try (Connection conn = Database.pool().getConnection();
+             PreparedStatement fund = conn.prepareStatement("UPDATE accounts SET balance = ? / 100 WHERE account_id = ?")) {
+            fund.setLong(1, FUNDS);
+            fund.setInt(2, account.id());
+            assertEquals(1, fund.executeUpdate());
+        }
+
+        int succeeded = hammer(Database.store(), account);
+        long closing = Database.jdbc().loadBalance(account);
+        assertTrue(closing >= 0, "overdrawn: " + Money.format(closing));
+        assertEquals(FUNDS - succeeded * AMOUNT, closing, "lost update");
+    }
+
+    /** Runs every withdrawal attempt and returns how many succeeded. */
+    private static int hammer(BankStore store, Account account) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                results.add(pool.submit(() -> {
+                    int succeeded = 0;
+                    for (int i = 0; i < ATTEMPTS; i++) {
+                        if (store.withdraw(account, AMOUNT)) succeeded++;
+                    }
+                    return succeeded;
+                }));
+            }
+            int succeeded = 0;
+            for (Future<Integer> result : results) succeeded += result.get();
+            return succeeded;
+        } finally {
+            pool.shutdown();
+        }
+    }
+}